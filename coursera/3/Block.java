@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -43,21 +44,29 @@ public class Block {
         txs.add(tx);
     }
 
-    public byte[] getRawBlock() {
-        ArrayList<Byte> rawBlock = new ArrayList<Byte>();
+    /** @return presná dĺžka kódovania z {@link #getRawBlock()} v bajtoch */
+    public int rawBlockSize() {
+        int size = prevBlockHash != null ? prevBlockHash.length : 0;
+        for (Transaction tx : txs)
+            size += tx.rawTxSize();
+        return size;
+    }
+
+    /**
+     * Zapíše kódovanie bloku do {@code out} na jeho aktuálnu pozíciu. V {@code out}
+     * musí zostávať aspoň {@link #rawBlockSize()} bajtov.
+     */
+    public void writeRawBlock(ByteBuffer out) {
         if (prevBlockHash != null)
-            for (int i = 0; i < prevBlockHash.length; i++)
-                rawBlock.add(prevBlockHash[i]);
-        for (int i = 0; i < txs.size(); i++) {
-            byte[] rawTx = txs.get(i).getRawTx();
-            for (int j = 0; j < rawTx.length; j++) {
-                rawBlock.add(rawTx[j]);
-            }
-        }
-        byte[] raw = new byte[rawBlock.size()];
-        for (int i = 0; i < raw.length; i++)
-            raw[i] = rawBlock.get(i);
-        return raw;
+            out.put(prevBlockHash);
+        for (Transaction tx : txs)
+            tx.writeRawTx(out);
+    }
+
+    public byte[] getRawBlock() {
+        ByteBuffer rawBlock = ByteBuffer.allocate(rawBlockSize());
+        writeRawBlock(rawBlock);
+        return rawBlock.array();
     }
 
     public void finalize() {
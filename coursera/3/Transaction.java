@@ -1,3 +1,4 @@
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -167,78 +168,80 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // i-ty vstup a všetky výstupy
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
         if (index > inputs.size())
             return null;
         Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                sigData.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                sigData.add(addressModulus[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        int size = Integer.BYTES + outputsSize();
+        if (in.prevTxHash != null)
+            size += in.prevTxHash.length;
+        ByteBuffer sigData = ByteBuffer.allocate(size);
+        if (in.prevTxHash != null)
+            sigData.put(in.prevTxHash);
+        sigData.putInt(in.outputIndex);
+        writeOutputs(sigData);
+        return sigData.array();
     }
 
     public void addSignature(byte[] signature, int index) {
         inputs.get(index).addSignature(signature);
     }
 
-    public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
+    /** @return presná dĺžka kódovania z {@link #getRawTx()} v bajtoch */
+    public int rawTxSize() {
+        int size = 0;
         for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
+            if (in.prevTxHash != null)
+                size += in.prevTxHash.length;
+            size += Integer.BYTES;
+            if (in.signature != null)
+                size += in.signature.length;
+        }
+        return size + outputsSize();
+    }
+
+    /**
+     * Zapíše kódovanie transakcie do {@code out} na jeho aktuálnu pozíciu, bez
+     * medzikópií. V {@code out} musí zostávať aspoň {@link #rawTxSize()} bajtov.
+     */
+    public void writeRawTx(ByteBuffer out) {
+        for (Input in : inputs) {
+            if (in.prevTxHash != null)
+                out.put(in.prevTxHash);
+            out.putInt(in.outputIndex);
+            if (in.signature != null)
+                out.put(in.signature);
+        }
+        writeOutputs(out);
+    }
+
+    public byte[] getRawTx() {
+        ByteBuffer rawTx = ByteBuffer.allocate(rawTxSize());
+        writeRawTx(rawTx);
+        return rawTx.array();
+    }
+
+    // dĺžka zakódovaných výstupov, rovnaká v getRawTx aj getRawDataToSign
+    private int outputsSize() {
+        int size = 0;
+        for (Output op : outputs) {
+            RSAPublicKey key = (RSAPublicKey) op.address;
+            size += Double.BYTES + bigIntegerSize(key.getPublicExponent()) + bigIntegerSize(key.getModulus());
         }
+        return size;
+    }
+
+    private void writeOutputs(ByteBuffer out) {
         for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                rawTx.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                rawTx.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                rawTx.add(addressModulus[i]);
+            RSAPublicKey key = (RSAPublicKey) op.address;
+            out.putDouble(op.value);
+            out.put(key.getPublicExponent().toByteArray());
+            out.put(key.getModulus().toByteArray());
         }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+    }
+
+    // dĺžka BigInteger.toByteArray() bez alokovania poľa
+    private static int bigIntegerSize(BigInteger n) {
+        return n.bitLength() / 8 + 1;
     }
 
     public void finalize() {
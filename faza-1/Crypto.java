@@ -3,9 +3,14 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class Crypto {
 
+    // zlyhania overenia na úrovni FINE, úroveň sa nastavuje cez java.util.logging
+    private static final Logger LOG = Logger.getLogger(Crypto.class.getName());
+
     /**
      * @return true, ak je {@code signature} platný digitálny podpis pre
      *         {@code message} s kľúčom {@code pubKey}. Interne sa používa podpis
@@ -13,24 +18,14 @@ public class Crypto {
      *         konkrétneho algoritmu podpisu
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
-        try {
-            sig = Signature.getInstance("SHA256withRSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
         try {
+            Signature sig = Signature.getInstance("SHA256withRSA");
             sig.initVerify(pubKey);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        }
-        try {
             sig.update(message);
             return sig.verify(signature);
-        } catch (SignatureException e) {
-            e.printStackTrace();
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            LOG.log(Level.FINE, "podpis sa nedá overiť", e);
+            return false;
         }
-        return false;
-
     }
 }
@@ -25,7 +25,7 @@ public class Main {
          * ktorý bude posunutý HandleTxs.
          */
         Tx tx = new Tx();
-        tx.addOutput(10, pk_bob.getPublic());
+        tx.addOutput(10 * Transaction.COIN, pk_bob.getPublic());
 
         // Táto hodnota nemá žiadny význam, ale tx.getRawDataToSign(0) k nej pristúpi v
         // prevTxHash;
@@ -53,13 +53,11 @@ public class Main {
         // Rozdelím coin hodnoty 10 na 3 coiny a všetky pošlem pre jednoduchosť 
         // na rovnakú adresu
         // (Alice)
-        tx2.addOutput(5, pk_alice.getPublic());
-        tx2.addOutput(3, pk_alice.getPublic());
-        tx2.addOutput(2, pk_alice.getPublic());
-         // Všimnite si, že v reálnom svete by sa pre hodnoty používali typy s fixed-point, 
-         // nie double.
-         // Doubles predstavujú floating-point chyby zaokrúhľovania. Tento typ by mal byť pre
-         // príklad BigInteger a praocvať s najmenšími zlomkami mincí (satoshi v Bitcoine).
+        tx2.addOutput(5 * Transaction.COIN, pk_alice.getPublic());
+        tx2.addOutput(3 * Transaction.COIN, pk_alice.getPublic());
+        tx2.addOutput(2 * Transaction.COIN, pk_alice.getPublic());
+         // Hodnoty sú v najmenších zlomkoch mincí (satoshi v Bitcoine) typu long,
+         // nie double, takže súčty sú presné a bez floating-point chýb zaokrúhľovania.
 
          // Existuje iba jeden (na pozícii 0) Transaction.Input v tx2
          // a obsahuje mincu od Boba, preto musím túto tx podpísať s
@@ -1,16 +1,22 @@
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.logging.Logger;
 
 public class MaxFeeHandleTxs {
 
+    // zamietnutia na úrovni FINE, úroveň sa nastavuje cez java.util.logging
+    private static final Logger LOG = Logger.getLogger(MaxFeeHandleTxs.class.getName());
+
     public UTXOPool ledger;
 
     /**
      * Vytvorí verejný ledger, ktorého aktuálny UTXOPool (zbierka nevyčerpaných
-     * transakčných výstupov) je {@code utxoPool}. Malo by to vytvoriť obchrannú
-     * kópiu utxoPool pomocou konštruktora UTXOPool (UTXOPool uPool).
+     * transakčných výstupov) je {@code utxoPool}. Ledger je vrstva
+     * {@link UTXOPool#overlay()} nad utxoPool, ten sa preto počas práce s
+     * handlerom nesmie meniť.
      */
     public MaxFeeHandleTxs(UTXOPool utxoPool) {
-        this.ledger = new UTXOPool(utxoPool);
+        this.ledger = utxoPool.overlay();
     }
 
     /**
@@ -21,96 +27,97 @@ public class MaxFeeHandleTxs {
      *         väčší alebo rovný súčtu jej výstupných hodnôt; a false inak.
      */
     public boolean txIsValid(Transaction tx) {
+        return validate(tx).isValid();
+    }
+
+    /**
+     * Ako {@link #txIsValid(Transaction)}, ale pri zamietnutí vráti dôvod a index
+     * vstupu alebo výstupu, ktorý pravidlo porušil.
+     */
+    public ValidationResult validate(Transaction tx) {
+        ValidationResult result = check(tx);
+        if (!result.isValid())
+            LOG.fine(() -> "transakcia zamietnutá: " + result);
+        return result;
+    }
+
+    private ValidationResult check(Transaction tx) {
         // na kontrolu (3) (spent transaction outputs)
-        ArrayList<UTXO> stxos = new ArrayList<>();
+        HashSet<UTXO> stxos = new HashSet<>();
 
         // na kontrolu (5)
-        double inputSum = 0;
-        double outputSum = 0;
+        long inputSum = 0;
+        long outputSum = 0;
 
+        // (1) vsetky vystupy narokovane mnou musia byt v aktualnom UTXO poole, cize
+        // pre kazdy moj input pozri ci utxo z predoslej transakcie je v mojom utxo poole
         int input_index = 0;
-
-        // (1) vsetky vystupy narokovane mnou su v aktualnom UTXO poole, cize
-        // pre kazdy moj input pozri ci utxo z predoslej transakcie
-        // je v mojom utxo poole
         for (Transaction.Input input : tx.getInputs()) {
             UTXO utxoPrev = new UTXO(input.prevTxHash, input.outputIndex);
 
-            if (!ledger.contains(utxoPrev)) {
-                System.out.println("(1) failed");
-                return false;
-            }
-
-            System.out.println("(1) passed");
+            // (1)
+            Transaction.Output output = this.ledger.getTxOutput(utxoPrev);
+            if (output == null)
+                return ValidationResult.reject(ValidationResult.Reason.MISSING_INPUT, input_index);
 
             // (2) podpisy na každom vstupe transakcie sú platné, cize
             // pre vsetky outputy napojene na moje inputy skontroluj podpisy
-            Transaction.Output output = this.ledger.getTxOutput(utxoPrev);
-            if (!Crypto.verifySignature(output.address, tx.getRawDataToSign(input_index++), input.signature)) {
-                System.out.println("(2) failed");
-                return false;
+            if (!Crypto.verifySignature(output.address, tx.getRawDataToSign(input_index), input.signature))
+                return ValidationResult.reject(ValidationResult.Reason.INVALID_SIGNATURE, input_index);
+
+            // (3) žiadne UTXO nie je nárokované viackrát
+            if (!stxos.add(utxoPrev))
+                return ValidationResult.reject(ValidationResult.Reason.DOUBLE_SPEND, input_index);
+
+            // (5), súčet so sledovaním pretečenia
+            try {
+                inputSum = Math.addExact(inputSum, output.value);
+            } catch (ArithmeticException e) {
+                return ValidationResult.reject(ValidationResult.Reason.VALUE_OVERFLOW, input_index);
             }
-
-            System.out.println("(2) passed");
-
-            // (3) žiadne UTXO nie je nárokované viackrát,
-            if (stxos.contains(utxoPrev)) {
-                System.out.println("(3) failed");
-                return false;
-            }
-
-            stxos.add(utxoPrev);
-            System.out.println("(3) passed");
-
-            // (5)
-            inputSum += output.value;
+            input_index++;
         }
 
         // (4) všetky výstupné hodnoty {@code tx}s sú nezáporné
+        int output_index = 0;
         for (Transaction.Output output : tx.getOutputs()) {
-            if (output.value < 0) {
-                System.out.println("(4) failed");
-                return false;
+            if (output.value < 0)
+                return ValidationResult.reject(ValidationResult.Reason.NEGATIVE_OUTPUT, output_index);
+
+            // (5), súčet so sledovaním pretečenia
+            try {
+                outputSum = Math.addExact(outputSum, output.value);
+            } catch (ArithmeticException e) {
+                return ValidationResult.reject(ValidationResult.Reason.VALUE_OVERFLOW, output_index);
             }
 
-            System.out.println("(4) passed");
-
-            // (5)
-            outputSum += output.value;
-
-            // (5) súčet vstupných hodnôt {@code tx}s je väčší alebo rovný súčtu jej
-            // výstupných hodnôt
-            if (outputSum > inputSum) {
-                System.out.println("(5) failed");
-                return false;
-            }
-
-            System.out.println("(5) passed");
-
+            // (5) súčet vstupných hodnôt {@code tx}s je väčší alebo rovný súčtu jej výstupných hodnôt
+            if (outputSum > inputSum)
+                return ValidationResult.reject(ValidationResult.Reason.INSUFFICIENT_INPUTS, output_index);
+            output_index++;
         }
 
-        System.out.println("transaction is valid");
-        return true;
+        return ValidationResult.VALID;
     }
 
     // vracia poplatok za transakciu vyratanu zo suctu inputov - suctu outputov
-    private double getTxFee(Transaction tx) {
-        double inputSum = 0;
+    private long getTxFee(Transaction tx) {
+        long inputSum = 0;
         for (Transaction.Input input : tx.getInputs()) {
             UTXO utxoPrev = new UTXO(input.prevTxHash, input.outputIndex);
             Transaction.Output output = this.ledger.getTxOutput(utxoPrev);
             if (output == null || output.value < 0)
                 continue;
             else
-                inputSum += output.value;
+                inputSum = Math.addExact(inputSum, output.value);
         }
 
-        double outputSum = 0;
+        long outputSum = 0;
         for (Transaction.Output output : tx.getOutputs()) {
             if (output == null || output.value < 0)
                 continue;
             else
-                outputSum += output.value;
+                outputSum = Math.addExact(outputSum, output.value);
         }
 
         return inputSum - outputSum;
@@ -122,23 +129,27 @@ public class MaxFeeHandleTxs {
     public Transaction[] txHandler(Transaction[] possibleTxs) {
         ArrayList<Transaction> maxFeeTxs = new ArrayList<>();
 
-        // najdem maximalny poplatok
-        double maxFee = 0;
+        // najdem maximalny poplatok; kazda transakcia sa overi iba raz
+        ArrayList<Transaction> validTxs = new ArrayList<>();
+        ArrayList<Long> fees = new ArrayList<>();
+        long maxFee = 0;
         for (Transaction tx : possibleTxs) {
             if (!txIsValid(tx)) {
                 continue;
             }
 
-            double txFee = getTxFee(tx);
+            long txFee = getTxFee(tx);
+            validTxs.add(tx);
+            fees.add(txFee);
             if (maxFee < txFee) {
                 maxFee = txFee;
             }
         }
 
         // pridaj vsecky transakcie co maju ten max poplatok do arrayu
-        for (Transaction tx : possibleTxs) {
-            if (txIsValid(tx) && (getTxFee(tx) == maxFee)) {
-                maxFeeTxs.add(tx);
+        for (int i = 0; i < validTxs.size(); i++) {
+            if (fees.get(i) == maxFee) {
+                maxFeeTxs.add(validTxs.get(i));
             }
         }
 
@@ -7,6 +7,9 @@ import java.security.PublicKey;
 
 public class Transaction {
 
+    /** počet najmenších jednotiek (ako satoshi v Bitcoine) v jednej minci */
+    public static final long COIN = 100_000_000L;
+
     public class Input {
         /** hash transakcie, ktorej výstup sa ide použiť */
         public byte[] prevTxHash;
@@ -32,12 +35,12 @@ public class Transaction {
     }
 
     public class Output {
-        /** hodnota výstupu v bitcoinoch  */
-        public double value;
+        /** hodnota výstupu v najmenších jednotkách mince, pozri {@link Transaction#COIN} */
+        public long value;
         /** adresa alebo verejný kľúč prijímateľa */
         public PublicKey address;
 
-        public Output(double v, PublicKey addr) {
+        public Output(long v, PublicKey addr) {
             value = v;
             address = addr;
         }
@@ -64,7 +67,7 @@ public class Transaction {
         inputs.add(in);
     }
 
-    public void addOutput(double value, PublicKey address) {
+    public void addOutput(long value, PublicKey address) {
         Output op = new Output(value, address);
         outputs.add(op);
     }
@@ -100,8 +103,8 @@ public class Transaction {
         for (int i = 0; i < outputIndex.length; i++)
             sigData.add(outputIndex[i]);
         for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
+            ByteBuffer bo = ByteBuffer.allocate(Long.SIZE / 8);
+            bo.putLong(op.value);
             byte[] value = bo.array();
             byte[] addressBytes = op.address.getEncoded();
             for (int i = 0; i < value.length; i++)
@@ -139,8 +142,8 @@ public class Transaction {
                     rawTx.add(signature[i]);
         }
         for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
+            ByteBuffer b = ByteBuffer.allocate(Long.SIZE / 8);
+            b.putLong(op.value);
             byte[] value = b.array();
             byte[] addressBytes = op.address.getEncoded();
             for (int i = 0; i < value.length; i++) {
@@ -164,7 +167,8 @@ public class Transaction {
             md.update(getRawTx());
             hash = md.digest();
         } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+            // SHA-256 musí mať každá implementácia Javy
+            throw new IllegalStateException(x);
         }
     }
 
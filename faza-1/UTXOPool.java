@@ -1,23 +1,79 @@
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.HashSet;
 
 public class UTXOPool {
 
     /**
      * Aktuálna zbierka UTXO, pričom každé z nich je mapované na zodpovedajúci
-     * výstup transakcie
+     * výstup transakcie. Pri vrstve (pozri {@link #overlay()}) obsahuje iba UTXO
+     * pridané vo vrstve.
      */
     private HashMap<UTXO, Transaction.Output> H;
 
+    /** pool pod touto vrstvou, null pre samostatný pool */
+    private final UTXOPool parent;
+
+    /** UTXO rodiča odstránené vo vrstve */
+    private HashSet<UTXO> removed;
+
     /** Vytvorí nový prázdny UTXOPool */
     public UTXOPool() {
-        H = new HashMap<UTXO, Transaction.Output>();
+        this(null, new HashMap<UTXO, Transaction.Output>(), new HashSet<UTXO>());
     }
 
     /** Vytvorí nový UTXOPool, ktorý je kópiou {@code uPool} */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        this(uPool.parent, new HashMap<UTXO, Transaction.Output>(uPool.H), new HashSet<UTXO>(uPool.removed));
+    }
+
+    private UTXOPool(UTXOPool parent, HashMap<UTXO, Transaction.Output> H, HashSet<UTXO> removed) {
+        this.parent = parent;
+        this.H = H;
+        this.removed = removed;
+    }
+
+    /**
+     * Vytvorí prázdnu vrstvu nad týmto poolom. Vrstva si pamätá iba svoje
+     * pridania a odstránenia, ostatné hľadanie prepadne do tohto poolu, takže
+     * namiesto kópie celého poolu sa platí iba za zmeny. Tento pool sa počas
+     * života vrstvy nesmie meniť inak ako cez {@link #commit()}.
+     */
+    public UTXOPool overlay() {
+        return new UTXOPool(this, new HashMap<UTXO, Transaction.Output>(), new HashSet<UTXO>());
+    }
+
+    /** @return pool pod touto vrstvou alebo null, ak nejde o vrstvu */
+    public UTXOPool getParent() {
+        return parent;
+    }
+
+    /**
+     * Zapíše zmeny tejto vrstvy do rodiča a vyprázdni ju; vrstva ostáva použiteľná
+     * nad zmeneným rodičom.
+     *
+     * @throws IllegalStateException ak nejde o vrstvu
+     */
+    public void commit() {
+        if (parent == null)
+            throw new IllegalStateException("pool nie je vrstva");
+        for (UTXO ut : removed)
+            parent.removeUTXO(ut);
+        for (UTXO ut : H.keySet())
+            parent.addUTXO(ut, H.get(ut));
+        H.clear();
+        removed.clear();
+    }
+
+    /** @return samostatný pool s rovnakým obsahom ako táto vrstva */
+    public UTXOPool flatten() {
+        if (parent == null)
+            return new UTXOPool(this);
+        UTXOPool flat = parent.flatten();
+        for (UTXO ut : removed)
+            flat.removeUTXO(ut);
+        flat.H.putAll(H);
+        return flat;
     }
 
     /**
@@ -31,6 +87,8 @@ public class UTXOPool {
     /** Odstráni UTXO {@code utxo} z poolu */
     public void removeUTXO(UTXO utxo) {
         H.remove(utxo);
+        if (parent != null && parent.contains(utxo))
+            removed.add(utxo);
     }
 
     /**
@@ -38,21 +96,27 @@ public class UTXOPool {
      *         {@code utxo} nie je v poole.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
-        return H.get(ut);
+        Transaction.Output txOut = H.get(ut);
+        if (txOut != null || parent == null || removed.contains(ut))
+            return txOut;
+        return parent.getTxOutput(ut);
     }
 
     /** @return true ak UTXO {@code utxo} je v poole a inak false */
     public boolean contains(UTXO utxo) {
-        return H.containsKey(utxo);
+        return getTxOutput(utxo) != null;
     }
 
     /** Vráti {@code ArrayList} všetkých UTXOs v poole */
     public ArrayList<UTXO> getAllUTXO() {
-        Set<UTXO> setUTXO = H.keySet();
         ArrayList<UTXO> allUTXO = new ArrayList<UTXO>();
-        for (UTXO ut : setUTXO) {
-            allUTXO.add(ut);
+        if (parent != null) {
+            for (UTXO ut : parent.getAllUTXO()) {
+                if (!H.containsKey(ut) && !removed.contains(ut))
+                    allUTXO.add(ut);
+            }
         }
+        allUTXO.addAll(H.keySet());
         return allUTXO;
     }
 }
@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Výsledok overenia transakcie. Platný výsledok je jediný objekt
+ * {@link #VALID}, nový sa vytvára iba pri zamietnutí spolu s dôvodom a
+ * indexom vstupu alebo výstupu, ktorého sa týka. Každé zamietnutie zvýši
+ * počítadlo svojho dôvodu, pozri {@link #count(Reason)}.
+ */
+public final class ValidationResult {
+
+    /** dôvod zamietnutia */
+    public enum Reason {
+        /** (1) výstup, ktorý vstup míňa, nie je v UTXO poole */
+        MISSING_INPUT,
+        /** (2) podpis vstupu nie je platný */
+        INVALID_SIGNATURE,
+        /** (3) transakcia míňa to isté UTXO viackrát */
+        DOUBLE_SPEND,
+        /** (4) výstup má zápornú hodnotu */
+        NEGATIVE_OUTPUT,
+        /** (5) súčet vstupov alebo výstupov pretiekol */
+        VALUE_OVERFLOW,
+        /** (5) výstupy sú spolu väčšie ako vstupy */
+        INSUFFICIENT_INPUTS
+    }
+
+    public static final ValidationResult VALID = new ValidationResult(null, -1);
+
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(Reason.values().length);
+
+    private final Reason reason;
+    private final int index;
+
+    private ValidationResult(Reason reason, int index) {
+        this.reason = reason;
+        this.index = index;
+    }
+
+    /** @return zamietnutie z dôvodu {@code reason}; zvýši jeho počítadlo */
+    public static ValidationResult reject(Reason reason, int index) {
+        COUNTS.incrementAndGet(reason.ordinal());
+        return new ValidationResult(reason, index);
+    }
+
+    public boolean isValid() {
+        return reason == null;
+    }
+
+    /** @return dôvod zamietnutia, null pre platný výsledok */
+    public Reason getReason() {
+        return reason;
+    }
+
+    /** @return index vstupu alebo výstupu, ktorého sa zamietnutie týka, alebo -1 */
+    public int getIndex() {
+        return index;
+    }
+
+    /** @return počet zamietnutí z dôvodu {@code reason} od spustenia */
+    public static long count(Reason reason) {
+        return COUNTS.get(reason.ordinal());
+    }
+
+    public String toString() {
+        if (reason == null)
+            return "VALID";
+        return index >= 0 ? reason + " [" + index + "]" : reason.toString();
+    }
+}
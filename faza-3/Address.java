@@ -0,0 +1,131 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internovaná adresa (verejný kľúč) s predpočítanými kódovaniami. Rovnaký kľúč
+ * má v celom procese najviac jeden živý objekt {@code Address}, takže sa
+ * kódovanie kľúča počíta iba raz. Register drží adresy slabo: adresa, na ktorú
+ * už neodkazuje žiadny výstup ani pool, z neho vypadne a register nerastie s
+ * každým kľúčom, ktorý proces kedy videl.
+ */
+public final class Address {
+
+    /** dĺžka odtlačku adresy v bajtoch */
+    public static final int FINGERPRINT_LENGTH = 32;
+
+    private static final ConcurrentHashMap<PublicKey, Ref> REGISTRY = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Address> COLLECTED = new ReferenceQueue<>();
+
+    // slabý odkaz v registri; kľúč si pamätá, aby sa záznam dal odstrániť
+    private static final class Ref extends WeakReference<Address> {
+        final PublicKey key;
+
+        Ref(Address address) {
+            super(address, COLLECTED);
+            key = address.key;
+        }
+    }
+
+    private final PublicKey key;
+    private final SignatureScheme scheme;
+    /** kódovanie kľúča tak, ako ide do getRawTx a getRawDataToSign */
+    private final byte[] raw;
+    /** X.509 kódovanie pre {@link WireFormat} */
+    private final byte[] encoded;
+    /** SHA-256 z X.509 kódovania */
+    private final byte[] fingerprint;
+    private final int hash;
+
+    private Address(PublicKey key) {
+        this.key = key;
+        scheme = SignatureScheme.forKey(key);
+        raw = scheme.encodeKey(key);
+        encoded = key.getEncoded();
+        MessageDigest md = Crypto.sha256();
+        fingerprint = md.digest(encoded);
+        hash = ByteBuffer.wrap(fingerprint).getInt();
+    }
+
+    /** @return jediný živý objekt {@code Address} pre kľúč {@code key} */
+    public static Address intern(PublicKey key) {
+        Address address = lookup(key);
+        if (address != null)
+            return address;
+        expunge();
+        Address[] interned = new Address[1];
+        REGISTRY.compute(key, (k, ref) -> {
+            interned[0] = ref != null ? ref.get() : null;
+            if (interned[0] != null)
+                return ref;
+            interned[0] = new Address(k);
+            return new Ref(interned[0]);
+        });
+        return interned[0];
+    }
+
+    /**
+     * @return živý objekt {@code Address} pre kľúč {@code key}, alebo null, ak
+     *         žiadny nie je; na rozdiel od {@link #intern} register nemení
+     */
+    static Address lookup(PublicKey key) {
+        Ref ref = REGISTRY.get(key);
+        return ref != null ? ref.get() : null;
+    }
+
+    // odstráni záznamy adries, ktoré zozbieral GC
+    private static void expunge() {
+        for (Object ref; (ref = COLLECTED.poll()) != null;)
+            REGISTRY.remove(((Ref) ref).key, ref);
+    }
+
+    /** @return počet internovaných adries, vrátane ešte neodstránených zozbieraných */
+    public static int registrySize() {
+        expunge();
+        return REGISTRY.size();
+    }
+
+    public PublicKey getKey() {
+        return key;
+    }
+
+    public SignatureScheme getScheme() {
+        return scheme;
+    }
+
+    /** @return kódovanie do getRawTx; zdieľané pole, nesmie sa meniť */
+    byte[] getRaw() {
+        return raw;
+    }
+
+    /** @return X.509 kódovanie; zdieľané pole, nesmie sa meniť */
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    /** @return odtlačok adresy; zdieľané pole, nesmie sa meniť */
+    byte[] fingerprint() {
+        return fingerprint;
+    }
+
+    /** @return kópia 32-bajtového odtlačku adresy */
+    public byte[] getFingerprint() {
+        return fingerprint.clone();
+    }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (other == null || getClass() != other.getClass())
+            return false;
+        return Arrays.equals(fingerprint, ((Address) other).fingerprint);
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+}
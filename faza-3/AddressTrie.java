@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+/**
+ * Nemenná (perzistentná) mapa adresy na hodnotu, hash array mapped trie ako
+ * {@link UTXOTrie}. Kľúčom je odtlačok adresy cez {@link Address#hashCode()} a
+ * {@link Address#equals}, takže kópia mapy je O(1) a zmena kopíruje iba
+ * O(log n) uzlov na ceste od koreňa.
+ */
+final class AddressTrie<V> {
+
+    private static final AddressTrie<?> EMPTY = new AddressTrie<>(null, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private AddressTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> AddressTrie<V> empty() {
+        return (AddressTrie<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Address key) {
+        return root != null ? (V) root.find(0, key.hashCode(), key) : null;
+    }
+
+    /** @return mapa, v ktorej je {@code key} namapované na {@code value} */
+    AddressTrie<V> with(Address key, V value) {
+        boolean[] added = new boolean[1];
+        Node node = root != null ? root : BitmapNode.EMPTY;
+        Node newRoot = node.with(0, key.hashCode(), key, value, added);
+        if (newRoot == root)
+            return this;
+        return new AddressTrie<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** @return mapa bez {@code key} */
+    AddressTrie<V> without(Address key) {
+        if (root == null)
+            return this;
+        Node newRoot = root.without(0, key.hashCode(), key);
+        if (newRoot == root)
+            return this;
+        return new AddressTrie<>(newRoot, size - 1);
+    }
+
+    private interface Node {
+        Object find(int shift, int hash, Address key);
+
+        Node with(int shift, int hash, Address key, Object value, boolean[] added);
+
+        /** @return uzol bez {@code key}, null ak ostal prázdny */
+        Node without(int shift, int hash, Address key);
+    }
+
+    /**
+     * Uzol s až 32 vetvami. {@code array} má pre každý nastavený bit dvojicu
+     * (kľúč, hodnota) alebo (null, podstrom).
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        public Object find(int shift, int hash, Address key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return null;
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null)
+                return ((Node) v).find(shift + BITS, hash, key);
+            return key.equals(k) ? v : null;
+        }
+
+        public Node with(int shift, int hash, Address key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, 2 * i);
+                newArray[2 * i] = key;
+                newArray[2 * i + 1] = value;
+                System.arraycopy(array, 2 * i, newArray, 2 * i + 2, array.length - 2 * i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).with(shift + BITS, hash, key, value, added);
+                return child == v ? this : replace(2 * i + 1, child);
+            }
+            if (key.equals(k))
+                return v == value ? this : replace(2 * i + 1, value);
+            added[0] = true;
+            Node child = split(shift + BITS, (Address) k, v, hash, key, value);
+            Object[] newArray = array.clone();
+            newArray[2 * i] = null;
+            newArray[2 * i + 1] = child;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        public Node without(int shift, int hash, Address key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).without(shift + BITS, hash, key);
+                if (child == v)
+                    return this;
+                if (child != null)
+                    return replace(2 * i + 1, child);
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            if (bitmap == bit)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * i);
+            System.arraycopy(array, 2 * i + 2, newArray, 2 * i, newArray.length - 2 * i);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        private BitmapNode replace(int i, Object value) {
+            Object[] newArray = array.clone();
+            newArray[i] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private static Node split(int shift, Address k1, Object v1, int h2, Address k2, Object v2) {
+            int h1 = k1.hashCode();
+            if (h1 == h2)
+                return new CollisionNode(h1, new Object[] { k1, v1, k2, v2 });
+            boolean[] added = new boolean[1];
+            return EMPTY.with(shift, h1, k1, v1, added).with(shift, h2, k2, v2, added);
+        }
+    }
+
+    /** Uzol pre adresy s rovnakým hashom, prehľadáva sa lineárne. */
+    private static final class CollisionNode implements Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Address key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        public Object find(int shift, int hash, Address key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            return i >= 0 ? array[i + 1] : null;
+        }
+
+        public Node with(int shift, int hash, Address key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // iný hash: kolízny uzol sa presunie o úroveň nižšie
+                BitmapNode parent = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] { null, this });
+                return parent.with(shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value)
+                    return this;
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        public Node without(int shift, int hash, Address key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0)
+                return this;
+            if (array.length == 2)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+            return new CollisionNode(hash, newArray);
+        }
+    }
+}
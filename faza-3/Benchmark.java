@@ -0,0 +1,320 @@
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Orientačné merania výkonu, ktoré v UnitTest nemajú miesto: časy a pamäť sa
+ * líšia podľa stroja a JIT, testy preto kontrolujú iba správanie. Bez JMH,
+ * každé meranie má niekoľko kôl na zahriatie a vypíše posledné.
+ * <p>
+ * Spustenie: {@code java Benchmark [meranie ...]}, bez argumentov všetky.
+ */
+public class Benchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<String> only = new ArrayList<>();
+        for (String arg : args)
+            only.add(arg.toLowerCase());
+        if (only.isEmpty() || only.contains("memory"))
+            transactionMemory();
+        if (only.isEmpty() || only.contains("schemes"))
+            signatureSchemes();
+        if (only.isEmpty() || only.contains("table"))
+            tableLookups();
+        if (only.isEmpty() || only.contains("view"))
+            viewThroughput();
+        if (only.isEmpty() || only.contains("shards"))
+            shardedApply();
+        if (only.isEmpty() || only.contains("bloom"))
+            bloomFilter();
+        if (only.isEmpty() || only.contains("stages"))
+            validationStages();
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    // typická transakcia v mempoole: 2 vstupy s 32 B hashom a 256 B podpisom, 2 výstupy
+    private static Transaction mempoolTx(int n, KeyPair a, KeyPair b) {
+        Transaction tx = new Transaction();
+        for (int i = 0; i < 2; i++) {
+            byte[] prevHash = new byte[32];
+            prevHash[0] = (byte) n;
+            prevHash[1] = (byte) (n >>> 8);
+            prevHash[2] = (byte) (n >>> 16);
+            tx.addInput(prevHash, i);
+            tx.addSignature(new byte[256], i);
+        }
+        tx.addOutput(n, a.getPublic());
+        tx.addOutput(2 * n, b.getPublic());
+        tx.finalize();
+        return tx;
+    }
+
+    // réžia transakcie v halde oproti jej dátam
+    static void transactionMemory() {
+        KeyPair a = SignatureScheme.RSA.generateKeyPair();
+        KeyPair b = SignatureScheme.RSA.generateKeyPair();
+        int count = 50_000;
+        Transaction[] pool = new Transaction[count];
+        long before = usedHeap();
+        for (int i = 0; i < count; i++)
+            pool[i] = mempoolTx(i, a, b);
+        long perTx = (usedHeap() - before) / count;
+
+        // samotné dáta: kódovanie z getRawTx (vstupy a zakódované výstupy),
+        // hodnoty výstupov a hash transakcie
+        int payload = pool[0].getRawTx().length + 2 * Long.BYTES + 32;
+        System.out.println("bajtov na transakciu: " + perTx + ", z toho dáta: " + payload + " (" + pool.length + " tx)");
+    }
+
+    // schémy podpisu na ceste HandleTxs.txIsValid
+    static void signatureSchemes() {
+        int count = 200;
+        for (SignatureScheme scheme : new SignatureScheme[] { SignatureScheme.RSA, SignatureScheme.ED25519,
+                SignatureScheme.ECDSA }) {
+            KeyPair key = scheme.generateKeyPair();
+            Transaction funding = new Transaction();
+            for (int i = 0; i < count; i++)
+                funding.addOutput(Transaction.COIN, key.getPublic());
+            funding.finalize();
+            UTXOPool pool = new UTXOPool();
+            for (int i = 0; i < count; i++)
+                pool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+
+            Transaction[] txs = new Transaction[count];
+            for (int i = 0; i < count; i++) {
+                txs[i] = new Transaction();
+                txs[i].addInput(funding.getHash(), i);
+                txs[i].addOutput(Transaction.COIN, key.getPublic());
+                txs[i].addSignature(scheme.sign(key.getPrivate(), txs[i].getRawDataToSign(0)), 0);
+                txs[i].finalize();
+            }
+
+            long micros = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                HandleTxs handler = new HandleTxs(pool);
+                long start = System.nanoTime();
+                for (Transaction tx : txs)
+                    handler.txIsValid(tx);
+                micros = (System.nanoTime() - start) / 1000 / count;
+            }
+            System.out.println(scheme.name() + ": " + micros + " us na txIsValid, podpis "
+                    + txs[0].getInput(0).getSignature().length + " B, tx " + txs[0].getRawTx().length + " B");
+        }
+    }
+
+    // UTXOTable oproti HashMap<UTXO, Output>
+    static void tableLookups() {
+        KeyPair a = SignatureScheme.ED25519.generateKeyPair();
+        Transaction.Output txOut = new Transaction.Output(1, a.getPublic());
+        Random random = new Random(14);
+        int count = 100_000;
+        byte[][] hashes = new byte[count][32];
+        UTXOTable table = new UTXOTable();
+        HashMap<UTXO, Transaction.Output> reference = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(hashes[i]);
+            table.put(new UTXO(hashes[i], i & 3), txOut);
+            reference.put(new UTXO(hashes[i], i & 3), txOut);
+        }
+        UTXOPool pool = new UTXOPool(table);
+
+        long tableNanos = 0;
+        long mapNanos = 0;
+        long allocated = 0;
+        int found = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            allocated = allocatedBytes();
+            for (int i = 0; i < count; i++) {
+                if (pool.getTxOutput(hashes[i], i & 3) != null)
+                    found++;
+            }
+            allocated = allocatedBytes() - allocated;
+            tableNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                if (reference.get(new UTXO(hashes[i], i & 3)) != null)
+                    found--;
+            }
+            mapNanos = System.nanoTime() - start;
+        }
+        System.out.println("UTXOTable: " + tableNanos / count + " ns, HashMap: " + mapNanos / count
+                + " ns na hľadanie; alokované " + allocated + " B" + (found != 0 ? ", rozdiel " + found : ""));
+    }
+
+    // zverejňovanie verzií UTXOView a čítania súbežných čitateľov
+    static void viewThroughput() throws InterruptedException {
+        KeyPair a = SignatureScheme.ED25519.generateKeyPair();
+        int count = 2_000;
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < count; i++)
+            pool.addUTXO(new UTXO(new byte[] { (byte) i, (byte) (i >>> 8), 0 }, 0), new Transaction.Output(10, a.getPublic()));
+        UTXOView view = new UTXOView(pool);
+
+        int blocks = 2_000;
+        AtomicLong reads = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] readers = new Thread[Math.max(2, Runtime.getRuntime().availableProcessors() - 1)];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    UTXOView.Version v = view.current();
+                    v.getCommitment();
+                    v.contains(new UTXO(new byte[] { (byte) random.nextInt(256), (byte) random.nextInt(8), 0 }, 0));
+                    reads.incrementAndGet();
+                }
+            });
+            readers[r].start();
+        }
+
+        long start = System.nanoTime();
+        Random random = new Random(21);
+        for (int b = 1; b <= blocks; b++) {
+            int round = b;
+            view.apply(layer -> {
+                ArrayList<UTXO> spent = new ArrayList<>();
+                layer.stream().skip(random.nextInt(count - 20)).limit(20).forEach(e -> spent.add(e.getKey()));
+                for (int i = 0; i < spent.size(); i++) {
+                    Transaction.Output txOut = layer.getTxOutput(spent.get(i));
+                    layer.removeUTXO(spent.get(i));
+                    layer.addUTXO(new UTXO(new byte[] { (byte) i, (byte) (round >>> 8), (byte) round, 1 }, round), txOut);
+                }
+            });
+        }
+        long writeNanos = System.nanoTime() - start;
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+        System.out.println("UTXOView: " + blocks * 1_000_000_000L / writeNanos + " blokov/s, "
+                + reads.get() * 1_000_000_000L / writeNanos + " čítaní verzie/s, čitateľov " + readers.length);
+    }
+
+    // UTXOShards s rôznym počtom častí na bloku s 4000 transakciami
+    static void shardedApply() {
+        KeyPair a = SignatureScheme.ED25519.generateKeyPair();
+        UTXOPool base = new UTXOPool();
+        Transaction funding = new Transaction(4_000 * Transaction.COIN, a.getPublic());
+        for (int i = 1; i < 4_000; i++)
+            funding.addOutput(Transaction.COIN, a.getPublic());
+        funding.finalize();
+        for (int i = 0; i < funding.numOutputs(); i++)
+            base.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+        base.getCommitment();
+
+        Block block = new Block(new byte[] { 2 }, a.getPublic());
+        for (int i = 0; i < funding.numOutputs(); i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(funding.getHash(), i);
+            tx.addOutput(Transaction.COIN / 2, a.getPublic());
+            tx.addOutput(Transaction.COIN / 2, a.getPublic());
+            tx.finalize();
+            block.transactionAdd(tx);
+        }
+        block.finalize();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int shards : new int[] { 1, 4, cores }) {
+            UTXOShards sharded = new UTXOShards(shards, ForkJoinPool.commonPool());
+            long micros = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                sharded.apply(base, block);
+                micros = (System.nanoTime() - start) / 1000;
+            }
+            System.out.println("UTXOShards(" + shards + "): " + micros + " us na blok s "
+                    + block.getTransactions().size() + " transakciami");
+        }
+    }
+
+    // podiel hľadaní neexistujúcich UTXO, ktoré filter prepustí do úložiska
+    static void bloomFilter() {
+        KeyPair a = SignatureScheme.ED25519.generateKeyPair();
+        Random random = new Random(23);
+        BloomUTXOStore store = new BloomUTXOStore(new UTXOTable(), 0.01);
+        UTXOPool pool = new UTXOPool(store);
+        for (int i = 0; i < 20_000; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            pool.addUTXO(new UTXO(txHash, 0), new Transaction.Output(1, a.getPublic()));
+        }
+        long rejected = store.rejected();
+        int probes = 100_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < probes; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            pool.contains(txHash, 0);
+        }
+        long nanos = System.nanoTime() - start;
+        long passed = probes - (store.rejected() - rejected);
+        System.out.println("BloomUTXOStore: prepustených " + passed + " z " + probes + ", odhad "
+                + store.expectedFalsePositiveRate() + ", " + nanos / probes + " ns na hľadanie");
+    }
+
+    // stupne overenia pri epoche, v ktorej je väčšina transakcií spam
+    static void validationStages() {
+        KeyPair a = SignatureScheme.ED25519.generateKeyPair();
+        Transaction root = new Transaction(Transaction.COIN, a.getPublic());
+        for (int i = 1; i < 100; i++)
+            root.addOutput(Transaction.COIN, a.getPublic());
+        root.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < root.numOutputs(); i++)
+            pool.addUTXO(new UTXO(root.getHash(), i), root.getOutput(i));
+
+        ArrayList<Transaction> txs = new ArrayList<>();
+        Random random = new Random(25);
+        for (int i = 0; i < 20; i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(root.getHash(), i);
+            tx.addOutput(Transaction.COIN, a.getPublic());
+            tx.addSignature(SignatureScheme.ED25519.sign(a.getPrivate(), tx.getRawDataToSign(0)), 0);
+            tx.finalize();
+            txs.add(tx);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Transaction tx = new Transaction();
+            byte[] unknown = new byte[32];
+            random.nextBytes(unknown);
+            tx.addInput(i % 2 == 0 ? unknown : root.getHash(), 20 + i % 80);
+            tx.addOutput(i % 2 == 0 ? Transaction.COIN : 2 * Transaction.COIN, a.getPublic());
+            tx.addSignature(new byte[64], 0);
+            tx.finalize();
+            txs.add(random.nextInt(txs.size() + 1), tx);
+        }
+
+        long[] checked = new long[ValidationStage.values().length];
+        long[] rejected = new long[checked.length];
+        long[] nanos = new long[checked.length];
+        for (ValidationStage stage : ValidationStage.values()) {
+            checked[stage.ordinal()] = stage.checked();
+            rejected[stage.ordinal()] = stage.rejected();
+            nanos[stage.ordinal()] = stage.nanos();
+        }
+        new HandleTxs(pool).txHandler(txs.toArray(new Transaction[0]));
+        for (ValidationStage stage : ValidationStage.values()) {
+            System.out.println(stage + ": " + (stage.checked() - checked[stage.ordinal()]) + " kontrol, "
+                    + (stage.rejected() - rejected[stage.ordinal()]) + " zamietnutých, spolu "
+                    + (stage.nanos() - nanos[stage.ordinal()]) / 1000 + " us");
+        }
+    }
+}
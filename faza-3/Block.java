@@ -1,16 +1,22 @@
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.ArrayList;
 
 public class Block {
 
-    public static final double COINBASE = 6.25;
+    public static final long COINBASE = 6 * Transaction.COIN + Transaction.COIN / 4;
 
     private byte[] hash;
     private byte[] prevBlockHash;
     private Transaction coinbase;
     private ArrayList<Transaction> txs;
+    /**
+     * transakcie a ich {@link Transaction#modCount()} pri poslednom finalize();
+     * blok sa zmenil, ak sa líšia od aktuálnych
+     */
+    private Transaction[] hashedTxs;
+    private int[] hashedModCounts;
 
     /** {@code address} je adresa, na ktorú bude poslaná coinbase transakcia */
     public Block(byte[] prevHash, PublicKey address) {
@@ -19,6 +25,13 @@ public class Block {
         txs = new ArrayList<Transaction>();
     }
 
+    /** blok s už hotovou coinbase transakciou, napr. pri dekódovaní */
+    Block(byte[] prevHash, Transaction coinbase) {
+        prevBlockHash = prevHash;
+        this.coinbase = coinbase;
+        txs = new ArrayList<Transaction>();
+    }
+
     public Transaction getCoinbase() {
         return coinbase;
     }
@@ -43,30 +56,60 @@ public class Block {
         txs.add(tx);
     }
 
-    public byte[] getRawBlock() {
-        ArrayList<Byte> rawBlock = new ArrayList<Byte>();
+    /** @return presná dĺžka kódovania z {@link #getRawBlock()} v bajtoch */
+    public int rawBlockSize() {
+        int size = prevBlockHash != null ? prevBlockHash.length : 0;
+        for (Transaction tx : txs)
+            size += tx.rawTxSize();
+        return size;
+    }
+
+    /**
+     * Zapíše kódovanie bloku do {@code out} na jeho aktuálnu pozíciu. V {@code out}
+     * musí zostávať aspoň {@link #rawBlockSize()} bajtov.
+     */
+    public void writeRawBlock(ByteBuffer out) {
         if (prevBlockHash != null)
-            for (int i = 0; i < prevBlockHash.length; i++)
-                rawBlock.add(prevBlockHash[i]);
-        for (int i = 0; i < txs.size(); i++) {
-            byte[] rawTx = txs.get(i).getRawTx();
-            for (int j = 0; j < rawTx.length; j++) {
-                rawBlock.add(rawTx[j]);
-            }
+            out.put(prevBlockHash);
+        for (Transaction tx : txs)
+            tx.writeRawTx(out);
+    }
+
+    public byte[] getRawBlock() {
+        ByteBuffer rawBlock = ByteBuffer.allocate(rawBlockSize());
+        writeRawBlock(rawBlock);
+        return rawBlock.array();
+    }
+
+    /** @return true, ak sa od posledného finalize() zmenil zoznam transakcií alebo niektorá z nich */
+    private boolean hashStale() {
+        if (hash == null || hashedTxs == null || hashedTxs.length != txs.size())
+            return true;
+        for (int i = 0; i < hashedTxs.length; i++) {
+            Transaction tx = txs.get(i);
+            if (tx != hashedTxs[i] || tx.modCount() != hashedModCounts[i])
+                return true;
         }
-        byte[] raw = new byte[rawBlock.size()];
-        for (int i = 0; i < raw.length; i++)
-            raw[i] = rawBlock.get(i);
-        return raw;
+        return false;
     }
 
+    /**
+     * Prepočíta hash, iba ak sa od posledného volania zmenil zoznam transakcií,
+     * aj cez {@link #getTransactions()}, alebo niektorá transakcia v ňom.
+     * Transakcie sa hashujú priamo do digestu, bez skladania {@link #getRawBlock()}.
+     */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawBlock());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        if (!hashStale())
+            return;
+        MessageDigest md = Crypto.sha256();
+        if (prevBlockHash != null)
+            md.update(prevBlockHash);
+        hashedTxs = txs.toArray(new Transaction[0]);
+        hashedModCounts = new int[hashedTxs.length];
+        for (int i = 0; i < hashedTxs.length; i++) {
+            hashedTxs[i].updateDigest(md);
+            hashedModCounts[i] = hashedTxs[i].modCount();
         }
+        hash = md.digest();
     }
 }
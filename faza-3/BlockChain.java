@@ -1,4 +1,10 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
 
 // Blockchain by mal na uspokojenie funkcií udržiavať iba obmedzené množstvo uzlov
 // Nemali by ste mať všetky bloky pridané do blockchainu v pamäti  
@@ -6,10 +12,21 @@ import java.util.ArrayList;
 
 public class BlockChain {
     public static final int CUT_OFF_AGE = 12;
+    /** počet overených podpisov, ktoré si blockchain pamätá medzi poolom a blokmi */
+    public static final int SIGNATURE_CACHE_SIZE = 100_000;
+    // zamietnuté bloky na úrovni FINE, úroveň sa nastavuje cez java.util.logging
+    private static final Logger LOG = Logger.getLogger(BlockChain.class.getName());
 
     private ArrayList<Node> blocks = new ArrayList<>();
     private Node maxHeightNode;
     private TransactionPool transactionPool;
+    // podpisy overené pri transactionAdd sa pri blockAdd už neoverujú
+    private final SignatureCache signatureCache = new SignatureCache(SIGNATURE_CACHE_SIZE);
+    // UTXO pool najvyššieho bloku pre čitateľov z iných vlákien
+    private final UTXOView utxoView;
+    // minutia a výstupy bloku sa aplikujú paralelne po častiach podľa hashu UTXO
+    private final UTXOShards utxoShards = new UTXOShards(Runtime.getRuntime().availableProcessors(),
+            ForkJoinPool.commonPool());
 
     // nech mozem mat stromovu strukturu
     private class Node {
@@ -54,7 +71,7 @@ public class BlockChain {
 
     public Node getParentNode(byte[] prevBlockHash) {
         for (Node node : this.blocks) {
-            if (node.block.getHash() == prevBlockHash) {
+            if (Arrays.equals(node.block.getHash(), prevBlockHash)) {
                 return node;
             }
         }
@@ -77,11 +94,54 @@ public class BlockChain {
      */
     public BlockChain(Block genesisBlock) {
         UTXOPool genesisUtxoPool = this.getUTXOPoolFromTx(genesisBlock.getCoinbase());
+        // odtlačok sa spočíta raz tu, pooly ďalších blokov ho udržujú v O(1)
+        genesisUtxoPool.getCommitment();
         Node genesisNode = new Node(genesisBlock, null, genesisUtxoPool);
+        this.blocks.add(genesisNode);
 
         this.transactionPool = new TransactionPool();
         this.transactionPool.addTransaction(genesisBlock.getCoinbase());
         this.maxHeightNode = genesisNode;
+        this.utxoView = new UTXOView(genesisUtxoPool);
+    }
+
+    /**
+     * vytvor blockchain, ktorého koreňom je {@code tipBlock} s kópiou UTXO poolu
+     * {@code utxoPool}, ktorý musí zodpovedať stavu po {@code tipBlock}. Bloky
+     * pred {@code tipBlock} sa neprehrávajú. Pool zo snímky načítaj radšej cez
+     * {@link #fromSnapshot(Block, Path, UTXOPool)}, ktorý overí aj hash bloku.
+     * <p>
+     * Ak sa {@code utxoPool} nedá kopírovať v O(1), napr. nad
+     * {@link MappedUTXOStore}, nekopíruje sa: pooly blokov sú vrstvy nad ním a
+     * v halde držia iba zmeny od {@code tipBlock}. Taký {@code utxoPool} sa
+     * potom počas života blockchainu nesmie meniť.
+     */
+    public BlockChain(Block tipBlock, UTXOPool utxoPool) {
+        UTXOPool tipUtxoPool = utxoPool.persistent() ? utxoPool.snapshot() : utxoPool.overlay();
+        tipUtxoPool.getCommitment();
+        Node tipNode = new Node(tipBlock, null, tipUtxoPool);
+        this.blocks.add(tipNode);
+
+        // ako pri Genesis bloku, aby pool transakcií nebol prázdny
+        this.transactionPool = new TransactionPool();
+        this.transactionPool.addTransaction(tipBlock.getCoinbase());
+        this.maxHeightNode = tipNode;
+        this.utxoView = new UTXOView(tipUtxoPool);
+    }
+
+    /**
+     * Načítaj snímku {@code snapshot} do {@code into}, pozri
+     * {@link UTXOSnapshot#load(Path, UTXOPool)}, a vytvor blockchain, ktorého
+     * koreňom je {@code tipBlock}.
+     *
+     * @throws IOException ak snímka nie je platná alebo patrí inému bloku ako
+     *                     {@code tipBlock}
+     */
+    public static BlockChain fromSnapshot(Block tipBlock, Path snapshot, UTXOPool into) throws IOException {
+        byte[] tipHash = UTXOSnapshot.load(snapshot, into);
+        if (!Arrays.equals(tipHash, tipBlock.getHash()))
+            throw new IOException("snímka " + snapshot + " nepatrí bloku " + HexFormat.of().formatHex(tipBlock.getHash()));
+        return new BlockChain(tipBlock, into);
     }
 
     /**
@@ -92,10 +152,37 @@ public class BlockChain {
     }
 
     /**
-     * Získaj UTXOPool na ťaženie noveho bloku na vrchu max height bloku
+     * Získaj UTXOPool na ťaženie noveho bloku na vrchu max height bloku. Vracia
+     * kópiu, zmeny v nej blockchain neovplyvnia.
      */
     public UTXOPool getMaxHeightUTXOPool() {
-        return this.maxHeightNode.getUtxoPool();
+        return this.maxHeightNode.getUtxoPool().snapshot();
+    }
+
+    /**
+     * Získaj pohľad na UTXO pool max height bloku, ktorý môžu bez zámkov čítať
+     * iné vlákna počas blockAdd
+     */
+    public UTXOView getUTXOView() {
+        return this.utxoView;
+    }
+
+    /**
+     * Získaj cache overených podpisov zdieľanú medzi transactionAdd a blockAdd,
+     * napr. kvôli počítadlám hits/misses
+     */
+    public SignatureCache getSignatureCache() {
+        return this.signatureCache;
+    }
+
+    /**
+     * Zapni index adries na UTXO pooloch všetkých blokov, pozri
+     * {@link UTXOPool#indexAddresses()}; pooly nových blokov ho zdedia
+     */
+    public void indexAddresses() {
+        for (Node node : this.blocks)
+            node.getUtxoPool().indexAddresses();
+        this.utxoView.publish(this.maxHeightNode.getUtxoPool());
     }
 
     /**
@@ -105,9 +192,10 @@ public class BlockChain {
         return this.transactionPool;
     }
 
+    // transakcia do poolu sa overuje voci UTXO poolu max height bloku, ktoreho
+    // vystupy mozno minut v dalsom bloku
     public boolean isTxValid(Transaction tx) {
-        UTXOPool utxoPool = getUTXOPoolFromTx(tx);
-        HandleTxs txHandler = new HandleTxs(utxoPool);
+        HandleTxs txHandler = new HandleTxs(this.maxHeightNode.getUtxoPool(), signatureCache);
         return txHandler.txIsValid(tx);
     }
 
@@ -115,41 +203,47 @@ public class BlockChain {
         return this.transactionPool.getTransactions().isEmpty();
     }
 
-    private boolean areTransactionsValid(Block block) {
-        for (Transaction tx : block.getTransactions()) {
-            if (!this.isTxValid(tx))
-                return false;
-        }
-        return true;
+    // transakcie bloku sa overujú voči UTXO poolu parenta; podpisy všetkých
+    // vstupov bloku overí txHandler jednou paralelnou dávkou
+    private ValidationResult validateTransactions(Block block, Node parent) {
+        Transaction[] txs = block.getTransactions().toArray(new Transaction[0]);
+        HandleTxs txHandler = new HandleTxs(parent.getUtxoPool(), signatureCache);
+        Transaction[] accepted = txHandler.txHandler(txs);
+        if (accepted.length == txs.length)
+            return ValidationResult.VALID;
+        // prijaté transakcie sú v pôvodnom poradí, prvá chýbajúca je neplatná
+        int i = 0;
+        while (i < accepted.length && accepted[i] == txs[i])
+            i++;
+        return ValidationResult.reject(ValidationResult.Reason.INVALID_TRANSACTION, i);
     }
 
     private boolean isBlockNull(Block block) {
         return block.getHash() == null || block.getRawBlock() == null;
     }
 
-    private boolean hasParent(Block block) {
-        return block.getPrevBlockHash() == null;
-    }
-
-    private boolean isUnderCutOffAge() {
+    private boolean isUnderCutOffAge(Node parent) {
         Integer maxHeight = this.maxHeightNode.getHeight();
-        return maxHeight + 1 > maxHeight - CUT_OFF_AGE;
+        return parent.getHeight() + 1 > maxHeight - CUT_OFF_AGE;
     }
 
-    // blok nie je valid ak nema transakcie,
-    // ak niektora transakcia nie je platna,
-    // ak je block null
-    // ak nema parenta
-    // ak presahuje vysku blockchainu
-    private boolean isBlockValid(Block block) {
-        System.out.println("\n");
-        System.out.println("is transactionpool empty: ... " + isTransactionPoolEmpty());
-        System.out.println("are transactions valid: ..... " + areTransactionsValid(block));
-        System.out.println("is block null: .............. " + isBlockNull(block));
-        System.out.println("has parent: ................. " + hasParent(block));
-        System.out.println("is under cutoff age: ........ " + isUnderCutOffAge());
-
-        return !isTransactionPoolEmpty() && areTransactionsValid(block) && !isBlockNull(block) && hasParent(block) && isUnderCutOffAge();
+    // blok nie je valid ak je block null,
+    // ak nema parenta,
+    // ak presahuje vysku blockchainu,
+    // ak nema transakcie,
+    // ak niektora transakcia nie je platna;
+    // kazda kontrola sa vyhodnoti raz, najdrahsia ako posledna
+    private ValidationResult validateBlock(Block block) {
+        if (isBlockNull(block))
+            return ValidationResult.reject(ValidationResult.Reason.NULL_BLOCK, -1);
+        Node parent = block.getPrevBlockHash() != null ? getParentNode(block.getPrevBlockHash()) : null;
+        if (parent == null)
+            return ValidationResult.reject(ValidationResult.Reason.MISSING_PARENT, -1);
+        if (!isUnderCutOffAge(parent))
+            return ValidationResult.reject(ValidationResult.Reason.BELOW_CUT_OFF, -1);
+        if (isTransactionPoolEmpty())
+            return ValidationResult.reject(ValidationResult.Reason.EMPTY_TRANSACTION_POOL, -1);
+        return validateTransactions(block, parent);
     }
 
     /**
@@ -166,8 +260,11 @@ public class BlockChain {
      */
     public boolean blockAdd(Block block) {
         // najprv check ci je valid
-        if (!isBlockValid(block))
+        ValidationResult result = validateBlock(block);
+        if (!result.isValid()) {
+            LOG.fine(() -> "blok zamietnutý: " + result);
             return false;
+        }
 
         // block je valid, teraz ho mozem zaclenit do blockchainu
 
@@ -179,32 +276,25 @@ public class BlockChain {
             return false;
         }
 
-        UTXOPool parentUtxoPool = new UTXOPool(parent.getUtxoPool());
-        UTXOPool childUtxoPool = new UTXOPool();
-        for (Transaction tx : block.getTransactions()) {
-
-            // zmazem spent outputy z parentovho utxopoolu
-            for (Transaction.Input input : tx.getInputs()) {
-                UTXO utxoToRemove = new UTXO(input.prevTxHash, input.outputIndex);
-                parentUtxoPool.removeUTXO(utxoToRemove);
-            }
-
-            // pridam outputy do utxo poolu childa
-            int output_index = 0;
-            for (Transaction.Output output : tx.getOutputs()) {
-                UTXO utxoToAdd = new UTXO(tx.getHash(), output_index++);
-                childUtxoPool.addUTXO(utxoToAdd, output);
-            }
+        // zmazem spent outputy a pridam nove outputy a coinbase do utxo poolu
+        // childa; ak niektory vstup chyba, pool parenta ostava nezmeneny
+        UTXOPool childUtxoPool = utxoShards.apply(parent.getUtxoPool(), block);
+        if (childUtxoPool == null)
+            return false;
 
-            // transakcie ktore su v bloku zmazem z transaction poolu
+        // transakcie ktore su v bloku zmazem z transaction poolu
+        for (Transaction tx : block.getTransactions())
             this.transactionPool.removeTransaction(tx.getHash());
-        }
 
-        // pridam blok do blockchainu
+        // pridam blok do blockchainu; blok vo vetve, ktora nie je vyssia,
+        // nemeni max height blok ani zverejneny pool
         Node newNode = new Node(block, parent, childUtxoPool);
         this.blocks.add(newNode);
-        this.maxHeightNode = newNode;
         parent.addChild(newNode);
+        if (newNode.getHeight() > this.maxHeightNode.getHeight()) {
+            this.maxHeightNode = newNode;
+            this.utxoView.publish(newNode.getUtxoPool());
+        }
         return true;
     }
 
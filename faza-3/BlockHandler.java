@@ -27,7 +27,7 @@ public class BlockHandler {
         Block current = new Block(parentHash, myAddress);
         UTXOPool uPool = blockChain.getMaxHeightUTXOPool();
         TransactionPool txPool = blockChain.getTransactionPool();
-        HandleTxs handler = new HandleTxs(uPool);
+        HandleTxs handler = new HandleTxs(uPool, blockChain.getSignatureCache());
         Transaction[] txs = txPool.getTransactions().toArray(new Transaction[0]);
         Transaction[] rTxs = handler.txHandler(txs);
         for (int i = 0; i < rTxs.length; i++)
@@ -0,0 +1,140 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * Pohľad na blok zakódovaný vo {@link WireFormat} priamo v {@link ByteBuffer}.
+ * Transakcie sa čítajú cez {@link TransactionView}, ktorý si volajúci môže
+ * opakovane použiť pre všetky transakcie bloku.
+ */
+public class BlockView {
+
+    private ByteBuffer buf;
+    private int start;
+    private int end;
+    private int prevHashPos;
+    private int hashPos;
+    private int coinbasePos;
+    private int numTxs;
+    private int[] txPos = new int[16];
+
+    /**
+     * Nastaví pohľad na blok začínajúci na {@code offset}. Kontroluje iba rámce
+     * transakcií, ich obsah sa kontroluje až pri {@link TransactionView#wrap}.
+     *
+     * @throws IllegalArgumentException ak má blok neznámu verziu alebo nevojde sa
+     *                                  do buffra
+     */
+    public BlockView wrap(ByteBuffer buf, int offset) {
+        if (buf.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("buffer musí byť BIG_ENDIAN");
+        this.buf = buf;
+        this.start = offset;
+        int limit = buf.limit();
+        check(offset, limit);
+        check(offset + 1, limit);
+        if (buf.get(offset) != WireFormat.VERSION)
+            throw new IllegalArgumentException("neznáma verzia bloku: " + buf.get(offset));
+        prevHashPos = offset + 1;
+        hashPos = skipBytes(prevHashPos, limit);
+        int pos = skipBytes(hashPos, limit);
+
+        coinbasePos = pos + Integer.BYTES;
+        pos = skipFrame(pos, limit);
+
+        check(pos + Integer.BYTES, limit);
+        numTxs = buf.getInt(pos);
+        pos += Integer.BYTES;
+        if (numTxs < 0)
+            throw new IllegalArgumentException("záporný počet transakcií");
+        if (numTxs > (limit - pos) / Integer.BYTES)
+            throw new IllegalArgumentException("počet transakcií " + numTxs + " presahuje koniec buffra");
+        if (txPos.length < numTxs)
+            txPos = new int[Math.max(numTxs, txPos.length * 2)];
+        for (int i = 0; i < numTxs; i++) {
+            txPos[i] = pos + Integer.BYTES;
+            pos = skipFrame(pos, limit);
+        }
+        end = pos;
+        return this;
+    }
+
+    /** @return dĺžka zakódovaného bloku v bajtoch */
+    public int size() {
+        return end - start;
+    }
+
+    public byte[] getPrevBlockHash() {
+        return copyBytes(prevHashPos);
+    }
+
+    /** @return hash uvedený odosielateľom; nie je overený voči obsahu */
+    public byte[] getHash() {
+        return copyBytes(hashPos);
+    }
+
+    public TransactionView getCoinbase(TransactionView into) {
+        return wrapFrame(coinbasePos, into);
+    }
+
+    public int numTransactions() {
+        return numTxs;
+    }
+
+    /** nastaví {@code into} na {@code index}-tú transakciu bloku */
+    public TransactionView getTransaction(int index, TransactionView into) {
+        return wrapFrame(txPos[Objects.checkIndex(index, numTxs)], into);
+    }
+
+    // transakcia musí presne vyplniť rámec, ktorého dĺžka je pred ňou
+    private TransactionView wrapFrame(int pos, TransactionView into) {
+        return into.wrap(buf, pos, buf.getInt(pos - Integer.BYTES));
+    }
+
+    /** Vytvorí z pohľadu bežný {@link Block} a prepočíta jeho hash. */
+    public Block toBlock() {
+        TransactionView view = new TransactionView();
+        Block block = new Block(getPrevBlockHash(), getCoinbase(view).toTransaction());
+        for (int i = 0; i < numTxs; i++)
+            block.transactionAdd(getTransaction(i, view).toTransaction());
+        block.finalize();
+        return block;
+    }
+
+    private byte[] copyBytes(int pos) {
+        int len = buf.getShort(pos);
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        buf.get(pos + Short.BYTES, b, 0, len);
+        return b;
+    }
+
+    private int skipBytes(int pos, int limit) {
+        check(pos + Short.BYTES, limit);
+        int len = buf.getShort(pos);
+        if (len < -1)
+            throw new IllegalArgumentException("záporná dĺžka poľa: " + len);
+        pos += Short.BYTES;
+        if (len > 0)
+            pos += len;
+        check(pos, limit);
+        return pos;
+    }
+
+    // preskočí rámec i32 dĺžka + obsah
+    private int skipFrame(int pos, int limit) {
+        check(pos + Integer.BYTES, limit);
+        int len = buf.getInt(pos);
+        if (len < 0)
+            throw new IllegalArgumentException("záporná dĺžka transakcie");
+        pos += Integer.BYTES + len;
+        check(pos, limit);
+        return pos;
+    }
+
+    private static void check(int pos, int limit) {
+        if (pos > limit || pos < 0)
+            throw new IllegalArgumentException("blok presahuje koniec buffra");
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Počítací Bloomov filter pred iným {@link UTXOStore}, napr. pred
+ * {@link CachedUTXOStore} nad {@link MappedUTXOStore}. Hľadanie UTXO, ktoré v
+ * úložisku nie je, filter väčšinou odmietne sám, bez čítania z disku a bez
+ * alokácie; transakcie míňajúce neexistujúce výstupy tak stoja iba niekoľko
+ * prístupov do poľa. Filter sa udržuje pri každom pridaní a odstránení, keď
+ * úložisko prerastie plánovanú kapacitu, postaví sa nanovo s dvojnásobnou.
+ * <p>
+ * Počítadlá majú 4 bity; počítadlo, ktoré dosiahne 15, sa už nemení, takže
+ * filter nikdy neodmietne prítomné UTXO. Počítadlá sú v stránkach po
+ * {@value #PAGE_WORDS} long, ktoré kópia zdieľa s originálom; stránka sa
+ * skopíruje až pri prvej zmene v jednom z nich. Kópia tak stojí iba pole
+ * odkazov na stránky a blok iba stránky, ktorých počítadlá zmenil.
+ * Hľadanie je bezpečné zo súbežných vlákien, ak to dovolí úložisko, zmeny nie.
+ */
+public class BloomUTXOStore implements UTXOStore, Flushable {
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final int SATURATED = 15;
+    /** počet long v stránke počítadiel, mocnina 2 */
+    static final int PAGE_WORDS = 512;
+    private static final int PAGE_SHIFT = 13; // 16 počítadiel v long * PAGE_WORDS
+
+    private final UTXOStore backend;
+    private final double falsePositiveRate;
+
+    private int capacity;
+    /** počet počítadiel */
+    private int counters;
+    private int hashes;
+    /** stránky po PAGE_WORDS long, 16 štvorbitových počítadiel v jednom long */
+    private long[][] pages;
+    /** stránky, ktoré nezdieľa žiadna kópia a smú sa meniť na mieste */
+    private boolean[] owned;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Postaví filter nad obsahom {@code backend}.
+     *
+     * @param falsePositiveRate podiel hľadaní neexistujúcich UTXO, ktoré filter
+     *                          prepustí do úložiska, pri plnej kapacite
+     */
+    public BloomUTXOStore(UTXOStore backend, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("pravdepodobnosť musí byť z (0, 1): " + falsePositiveRate);
+        this.backend = backend;
+        this.falsePositiveRate = falsePositiveRate;
+        rebuild(Math.max(MIN_CAPACITY, 2 * backend.size()));
+    }
+
+    private BloomUTXOStore(BloomUTXOStore other) {
+        backend = other.backend.copy();
+        falsePositiveRate = other.falsePositiveRate;
+        capacity = other.capacity;
+        counters = other.counters;
+        hashes = other.hashes;
+        pages = other.pages.clone();
+        // stránky sú odteraz zdieľané, prvá zmena ich skopíruje
+        owned = new boolean[pages.length];
+        Arrays.fill(other.owned, false);
+    }
+
+    /**
+     * Postaví filter nanovo z obsahu úložiska, napr. keď veľa počítadiel
+     * dosiahlo strop a filter prepúšťa viac, ako by mal.
+     */
+    public void rebuild() {
+        rebuild(capacity);
+    }
+
+    private void rebuild(int capacity) {
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.capacity = capacity;
+        counters = (int) Math.min(m, Integer.MAX_VALUE - 15);
+        hashes = Math.max(1, (int) Math.round((double) counters / capacity * ln2));
+        int words = (counters + 15) >>> 4;
+        pages = new long[(words + PAGE_WORDS - 1) / PAGE_WORDS][PAGE_WORDS];
+        owned = new boolean[pages.length];
+        Arrays.fill(owned, true);
+        backend.forEach((ut, txOut) -> increment(ut));
+    }
+
+    // dvojité hashovanie z 64-bitového hashu UTXOTable: i-ty index je h1 + i*h2
+    private boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            if (counter(Integer.remainderUnsigned(h1 + i * h2, counters)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private int counter(int i) {
+        return (int) (pages[i >>> PAGE_SHIFT][(i >>> 4) & (PAGE_WORDS - 1)] >>> ((i & 15) << 2)) & 0xf;
+    }
+
+    private void add(int i, int delta) {
+        int c = counter(i);
+        if (c == SATURATED || (delta < 0 && c == 0))
+            return;
+        int page = i >>> PAGE_SHIFT;
+        if (!owned[page]) {
+            pages[page] = pages[page].clone();
+            owned[page] = true;
+        }
+        pages[page][(i >>> 4) & (PAGE_WORDS - 1)] += (long) delta << ((i & 15) << 2);
+    }
+
+    private void update(UTXO utxo, int delta) {
+        long hash = hash(utxo);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++)
+            add(Integer.remainderUnsigned(h1 + i * h2, counters), delta);
+    }
+
+    private void increment(UTXO utxo) {
+        update(utxo, 1);
+    }
+
+    private static long hash(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        return UTXOTable.hash64(txHash, 0, txHash.length, utxo.getIndex());
+    }
+
+    public Transaction.Output get(byte[] txHash, int offset, int length, int index) {
+        lookups.increment();
+        if (!mightContain(UTXOTable.hash64(txHash, offset, length, index))) {
+            rejected.increment();
+            return null;
+        }
+        Transaction.Output txOut = backend.get(txHash, offset, length, index);
+        if (txOut == null)
+            falsePositives.increment();
+        return txOut;
+    }
+
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        // čo filter odmietne, v úložisku určite nie je a netreba sa pýtať
+        boolean present = mightContain(hash(utxo)) && backend.get(utxo) != null;
+        backend.put(utxo, txOut);
+        if (present)
+            return;
+        if (backend.size() > capacity)
+            rebuild(2 * capacity);
+        else
+            increment(utxo);
+    }
+
+    public void remove(UTXO utxo) {
+        if (!mightContain(hash(utxo)) || backend.get(utxo) == null)
+            return;
+        backend.remove(utxo);
+        update(utxo, -1);
+    }
+
+    public int size() {
+        return backend.size();
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        backend.forEach(action);
+    }
+
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        return backend.spliterator();
+    }
+
+    public void flush() throws IOException {
+        if (backend instanceof Flushable)
+            ((Flushable) backend).flush();
+    }
+
+    public boolean concurrentReads() {
+        return backend.concurrentReads();
+    }
+
+    public boolean persistent() {
+        return backend.persistent();
+    }
+
+    public UTXOStore copy() {
+        return new BloomUTXOStore(this);
+    }
+
+    /** @return počet hľadaní cez {@link #get} */
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    /** @return počet hľadaní, ktoré filter odmietol bez úložiska */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** @return počet hľadaní, ktoré filter prepustil, ale úložisko UTXO nemalo */
+    public long falsePositives() {
+        return falsePositives.sum();
+    }
+
+    /** @return odhad pravdepodobnosti falošne kladnej odpovede pri aktuálnej veľkosti */
+    public double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashes * size() / counters), hashes);
+    }
+}
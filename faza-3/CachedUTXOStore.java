@@ -0,0 +1,393 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Vyrovnávacia vrstva v halde pred trvalým {@link UTXOStore}, napr.
+ * {@link MappedUTXOStore}. Zmeny sa držia v halde a do úložiska sa zapisujú
+ * naraz, zoradené podľa {@link UTXO#compareTo}, keď počet záznamov prekročí
+ * rozpočet alebo uplynie interval kontrolného bodu.
+ * <p>
+ * Záznam, ktorý vznikol po poslednom zápise a ešte pred ďalším bol minutý, sa
+ * do úložiska nezapíše vôbec; väčšina výstupov sa míňa pár blokov po vzniku.
+ * Nie je vláknovo bezpečné.
+ */
+public class CachedUTXOStore implements UTXOStore, Flushable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // value == null je minuté UTXO, ktoré treba zmazať aj v úložisku;
+    // fresh znamená, že v úložisku nie je
+    private static final class Entry {
+        final UTXO key;
+        final int hash;
+        Transaction.Output value;
+        boolean dirty;
+        boolean fresh;
+        /** ďalší záznam v tom istom koši */
+        Entry next;
+        /** susedia v poradí prístupu */
+        Entry older;
+        Entry newer;
+
+        Entry(UTXO key, int hash, Transaction.Output value, boolean dirty, boolean fresh) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.dirty = dirty;
+            this.fresh = fresh;
+        }
+    }
+
+    private final UTXOStore backend;
+    private final int maxEntries;
+    private final long checkpointNanos;
+    // hašovacia tabuľka so zreťazením, hľadá sa priamo podľa úseku poľa s hashom
+    private Entry[] table = new Entry[MIN_CAPACITY];
+    private int entries;
+    // kruhový zoznam v poradí prístupu: lru.newer je najstarší záznam,
+    // najstaršie čisté záznamy sa vyhadzujú ako prvé
+    private final Entry lru = new Entry(null, 0, null, false, false);
+    private int size;
+    private int dirtyCount;
+    private long lastFlush = System.nanoTime();
+
+    // posledné hľadanie, ktoré úložisko nenašlo; UTXOPool.addUTXO pred put
+    // hľadá, a put sa tak nemusí pýtať úložiska druhýkrát
+    private final byte[] missTxHash = new byte[UTXOTable.HASH_BYTES];
+    private int missLength = -1;
+    private int missIndex;
+
+    private long flushes;
+    private long written;
+    private long neverWritten;
+
+    /**
+     * @param maxEntries      koľko záznamov môže byť v halde, kým sa zmeny zapíšu a
+     *                        čisté záznamy vyhodia
+     * @param checkpointMillis najdlhší čas medzi zápismi, 0 pre zápis iba pri
+     *                        prekročení rozpočtu
+     */
+    public CachedUTXOStore(UTXOStore backend, int maxEntries, long checkpointMillis) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("rozpočet musí byť kladný: " + maxEntries);
+        this.backend = backend;
+        this.maxEntries = maxEntries;
+        this.checkpointNanos = checkpointMillis * 1_000_000;
+        this.size = backend.size();
+        lru.older = lru;
+        lru.newer = lru;
+    }
+
+    private Entry find(byte[] txHash, int offset, int length, int index, int hash) {
+        for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && e.key.equals(txHash, offset, length, index))
+                return e;
+        }
+        return null;
+    }
+
+    private Entry find(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        return find(txHash, 0, txHash.length, utxo.getIndex(), utxo.hashCode());
+    }
+
+    // presunie záznam na koniec poradia prístupu
+    private void touch(Entry e) {
+        if (e.newer == lru)
+            return;
+        e.older.newer = e.newer;
+        e.newer.older = e.older;
+        link(e);
+    }
+
+    private void link(Entry e) {
+        e.older = lru.older;
+        e.newer = lru;
+        lru.older.newer = e;
+        lru.older = e;
+    }
+
+    private Entry insert(UTXO utxo, Transaction.Output value, boolean dirty, boolean fresh) {
+        if (entries >= table.length - (table.length >>> 2))
+            rehash(2 * table.length);
+        Entry e = new Entry(utxo, utxo.hashCode(), value, dirty, fresh);
+        int bucket = e.hash & (table.length - 1);
+        e.next = table[bucket];
+        table[bucket] = e;
+        link(e);
+        entries++;
+        return e;
+    }
+
+    private void rehash(int capacity) {
+        Entry[] old = table;
+        table = new Entry[capacity];
+        for (Entry head : old) {
+            for (Entry e = head; e != null;) {
+                Entry next = e.next;
+                int bucket = e.hash & (capacity - 1);
+                e.next = table[bucket];
+                table[bucket] = e;
+                e = next;
+            }
+        }
+    }
+
+    private void unlink(Entry e) {
+        int bucket = e.hash & (table.length - 1);
+        if (table[bucket] == e) {
+            table[bucket] = e.next;
+        } else {
+            Entry prev = table[bucket];
+            while (prev.next != e)
+                prev = prev.next;
+            prev.next = e.next;
+        }
+        e.older.newer = e.newer;
+        e.newer.older = e.older;
+        entries--;
+    }
+
+    /** Hľadanie v halde nevytvára UTXO; alokuje sa iba záznam načítaný z úložiska. */
+    public Transaction.Output get(byte[] txHash, int offset, int length, int index) {
+        Entry entry = find(txHash, offset, length, index, UTXO.hashCode(txHash, offset, length, index));
+        if (entry != null) {
+            touch(entry);
+            return entry.value;
+        }
+        Transaction.Output value = backend.get(txHash, offset, length, index);
+        if (value != null) {
+            insert(new UTXO(txHash, offset, length, index), value, false, false);
+            evictIfNeeded();
+        } else if (length <= missTxHash.length) {
+            System.arraycopy(txHash, offset, missTxHash, 0, length);
+            missLength = length;
+            missIndex = index;
+        }
+        return value;
+    }
+
+    public Transaction.Output get(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        return get(txHash, 0, txHash.length, utxo.getIndex());
+    }
+
+    // true, ak posledné hľadanie v úložisku bolo práve utxo a nenašlo ho
+    private boolean knownMissing(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        return missLength == txHash.length && missIndex == utxo.getIndex()
+                && Arrays.equals(missTxHash, 0, missLength, txHash, 0, txHash.length);
+    }
+
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        Entry entry = find(utxo);
+        if (entry == null) {
+            boolean stored = !knownMissing(utxo) && backend.get(utxo) != null;
+            insert(utxo, txOut, true, !stored);
+            dirtyCount++;
+            if (!stored)
+                size++;
+        } else {
+            touch(entry);
+            if (entry.value == null)
+                size++;
+            markDirty(entry);
+            entry.value = txOut;
+        }
+        missLength = -1;
+        checkpoint();
+    }
+
+    public void remove(UTXO utxo) {
+        Entry entry = find(utxo);
+        if (entry == null) {
+            if (knownMissing(utxo) || backend.get(utxo) == null)
+                return;
+            insert(utxo, null, true, false);
+            dirtyCount++;
+            size--;
+        } else if (entry.value != null) {
+            size--;
+            if (entry.fresh) {
+                // vznikol aj zanikol od posledného zápisu
+                unlink(entry);
+                dirtyCount--;
+                neverWritten++;
+            } else {
+                touch(entry);
+                markDirty(entry);
+                entry.value = null;
+            }
+        }
+        checkpoint();
+    }
+
+    private void markDirty(Entry entry) {
+        if (!entry.dirty) {
+            entry.dirty = true;
+            dirtyCount++;
+        }
+    }
+
+    private void checkpoint() {
+        if (entries > maxEntries
+                || (checkpointNanos > 0 && dirtyCount > 0 && System.nanoTime() - lastFlush > checkpointNanos))
+            flush();
+    }
+
+    private void evictIfNeeded() {
+        if (entries > maxEntries)
+            flush();
+    }
+
+    /**
+     * Zapíše všetky zmeny do úložiska jednou zoradenou dávkou a vyhodí najstaršie
+     * čisté záznamy, aby v halde ostala najviac polovica rozpočtu.
+     */
+    public void flush() {
+        if (dirtyCount > 0) {
+            ArrayList<Entry> batch = new ArrayList<>(dirtyCount);
+            for (Entry e = lru.newer; e != lru; e = e.newer) {
+                if (e.dirty)
+                    batch.add(e);
+            }
+            batch.sort((x, y) -> x.key.compareTo(y.key));
+            for (Entry entry : batch) {
+                if (entry.value == null)
+                    backend.remove(entry.key);
+                else
+                    backend.put(entry.key, entry.value);
+                entry.dirty = false;
+                entry.fresh = false;
+            }
+            written += batch.size();
+            dirtyCount = 0;
+            flushes++;
+            // úložisko sa zmenilo, zapamätané hľadanie neplatí
+            missLength = -1;
+            if (backend instanceof Flushable) {
+                try {
+                    ((Flushable) backend).flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        lastFlush = System.nanoTime();
+
+        // všetko je teraz čisté, vyhadzujú sa najdlhšie nepoužité záznamy
+        while (entries > maxEntries / 2)
+            unlink(lru.newer);
+        if (entries < table.length >>> 3 && table.length > MIN_CAPACITY) {
+            int capacity = MIN_CAPACITY;
+            while (capacity - (capacity >>> 2) <= entries)
+                capacity <<= 1;
+            rehash(capacity);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        backend.forEach((ut, txOut) -> {
+            if (find(ut) == null)
+                action.accept(ut, txOut);
+        });
+        for (Entry e = lru.newer; e != lru; e = e.newer) {
+            if (e.value != null)
+                action.accept(e.key, e.value);
+        }
+    }
+
+    /**
+     * @return spliterator bez kópie: záznamy úložiska, ktoré cache nezmenila, a
+     *         potom záznamy cache. Delí sa iba časť úložiska.
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        return new MergedSpliterator(backend.spliterator(), lru.newer);
+    }
+
+    private final class MergedSpliterator implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        private final Spliterator<Map.Entry<UTXO, Transaction.Output>> stored;
+        // ďalší záznam cache, lru na konci alebo v odštiepenej časti
+        private Entry cached;
+        private boolean accepted;
+
+        MergedSpliterator(Spliterator<Map.Entry<UTXO, Transaction.Output>> stored, Entry cached) {
+            this.stored = stored;
+            this.cached = cached;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            // záznamy úložiska, ktoré cache zmenila, sa preskočia
+            accepted = false;
+            while (stored.tryAdvance(e -> {
+                if (find(e.getKey()) == null) {
+                    action.accept(e);
+                    accepted = true;
+                }
+            })) {
+                if (accepted)
+                    return true;
+            }
+            while (cached != lru) {
+                Entry e = cached;
+                cached = e.newer;
+                if (e.value != null) {
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>(e.key, e.value));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            Spliterator<Map.Entry<UTXO, Transaction.Output>> prefix = stored.trySplit();
+            return prefix != null ? new MergedSpliterator(prefix, lru) : null;
+        }
+
+        public long estimateSize() {
+            return stored.estimateSize() + (cached != lru ? entries : 0);
+        }
+
+        public int characteristics() {
+            return DISTINCT | NONNULL;
+        }
+    }
+
+    /** zapíše zmeny a vráti kópiu úložiska */
+    public UTXOStore copy() {
+        flush();
+        return backend.copy();
+    }
+
+    /** @return počet záznamov v halde */
+    public int cachedEntries() {
+        return entries;
+    }
+
+    /** @return počet zápisov zmien do úložiska */
+    public long flushes() {
+        return flushes;
+    }
+
+    /** @return počet záznamov zapísaných do úložiska */
+    public long written() {
+        return written;
+    }
+
+    /** @return počet UTXO, ktoré vznikli a zanikli bez zápisu do úložiska */
+    public long neverWritten() {
+        return neverWritten;
+    }
+}
@@ -1,36 +1,267 @@
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Crypto {
 
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * @return SHA-256 digest patriaci aktuálnemu vláknu, vyresetovaný a pripravený
+     *         na nový hash. Nesmie sa posielať do iného vlákna.
+     */
+    public static MessageDigest sha256() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
+    }
+
+    /** výsledok overenia podpisu */
+    public enum VerifyResult {
+        /** podpis je platný */
+        VALID,
+        /** podpis nepatrí k správe alebo kľúču */
+        INVALID,
+        /** kľúč sa nedá použiť na overenie */
+        INVALID_KEY,
+        /** podpis má nesprávny formát */
+        MALFORMED_SIGNATURE,
+        /** chýba kľúč, správa alebo podpis */
+        MISSING,
+        /** algoritmus podpisu nie je dostupný */
+        UNAVAILABLE
+    }
+
+    /** jedna kontrola podpisu v dávke */
+    public static class SignatureCheck {
+        public final PublicKey pubKey;
+        public final byte[] message;
+        public final byte[] signature;
+
+        public SignatureCheck(PublicKey pubKey, byte[] message, byte[] signature) {
+            this.pubKey = pubKey;
+            this.message = message;
+            this.signature = signature;
+        }
+    }
+
+    /** dávky menšie ako toto sa overia priamo vo volajúcom vlákne */
+    private static final int MIN_PARALLEL_BATCH = 4;
+
+    private static volatile Executor batchExecutor = ForkJoinPool.commonPool();
+
+    /** počet inicializovaných overovačov na vlákno, 0 vypína cache */
+    private static volatile int verifierCacheSize = 64;
+
+    // jeden neinicializovaný Signature na algoritmus a vlákno
+    private static final ThreadLocal<HashMap<String, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+    // LRU: kľúč -> Signature už inicializovaný cez initVerify
+    private static final ThreadLocal<LinkedHashMap<PublicKey, Signature>> VERIFIERS = ThreadLocal
+            .withInitial(() -> new LinkedHashMap<PublicKey, Signature>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<PublicKey, Signature> eldest) {
+                    if (size() <= verifierCacheSize)
+                        return false;
+                    recycle(eldest.getValue());
+                    return true;
+                }
+            });
+
+    /**
+     * Nastaví, koľko inicializovaných overovačov pre najčastejšie kľúče si drží
+     * každé vlákno. Pri 0 sa pre každé overenie volá initVerify na jedinom
+     * {@link Signature} vlákna.
+     */
+    public static void setVerifierCacheSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("záporná veľkosť cache: " + size);
+        verifierCacheSize = size;
+    }
+
     /**
      * @return true, ak je {@code signature} platný digitálny podpis pre
-     *         {@code message} s kľúčom {@code pubKey}. Interne sa používa podpis
-     *         RSA, ale nie je potrebné riešiť akékoľvek podrobnosti implementácie
-     *         konkrétneho algoritmu podpisu
+     *         {@code message} s kľúčom {@code pubKey}. Algoritmus podpisu sa
+     *         určí podľa kľúča, pozri {@link SignatureScheme#forKey(PublicKey)}
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
+        return verify(pubKey, message, signature) == VerifyResult.VALID;
+    }
+
+    /** overenie jedného podpisu, napr. {@link SignatureScheme#verify} */
+    interface Verifier {
+        VerifyResult verify(PublicKey pubKey, byte[] message, byte[] signature);
+    }
+
+    /**
+     * Overí podpis schémou kľúča, pozri {@link SignatureScheme#forKey(PublicKey)}
+     * a {@link SignatureScheme#verify}, a namiesto výnimiek a výpisov na stderr
+     * vráti dôvod výsledku.
+     */
+    public static VerifyResult verify(PublicKey pubKey, byte[] message, byte[] signature) {
+        if (pubKey == null || message == null || signature == null)
+            return VerifyResult.MISSING;
+        SignatureScheme scheme;
         try {
-            sig = Signature.getInstance("SHA256withRSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            scheme = SignatureScheme.forKey(pubKey);
+        } catch (IllegalArgumentException e) {
+            return VerifyResult.INVALID_KEY;
         }
-        try {
-            sig.initVerify(pubKey);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+        return scheme.verify(pubKey, message, signature);
+    }
+
+    /**
+     * Overí podpis algoritmom {@code algorithm} pre {@link java.security.Signature}.
+     * Objekty {@link Signature} sa opakovane používajú v rámci vlákna.
+     */
+    static VerifyResult verify(String algorithm, PublicKey pubKey, byte[] message, byte[] signature) {
+        if (pubKey == null || message == null || signature == null)
+            return VerifyResult.MISSING;
+        LinkedHashMap<PublicKey, Signature> verifiers = VERIFIERS.get();
+        Signature sig = verifierCacheSize > 0 ? verifiers.get(pubKey) : null;
+        // ten istý kľúč môže overovať aj iná schéma s iným algoritmom
+        if (sig != null && !sig.getAlgorithm().equals(algorithm)) {
+            verifiers.remove(pubKey);
+            recycle(sig);
+            sig = null;
         }
         try {
+            if (sig == null) {
+                sig = threadSignature(algorithm);
+                sig.initVerify(pubKey);
+                if (verifierCacheSize > 0) {
+                    // objekt patrí odteraz cache; vlákno dostane späť overovač,
+                    // ktorý z cache vytlačí, inak pri ďalšom volaní nový
+                    SIGNATURES.get().remove(algorithm);
+                    verifiers.put(pubKey, sig);
+                }
+            }
             sig.update(message);
-            return sig.verify(signature);
+            return sig.verify(signature) ? VerifyResult.VALID : VerifyResult.INVALID;
+        } catch (NoSuchAlgorithmException e) {
+            return VerifyResult.UNAVAILABLE;
+        } catch (InvalidKeyException | IllegalArgumentException e) {
+            return VerifyResult.INVALID_KEY;
         } catch (SignatureException e) {
-            e.printStackTrace();
+            // po chybe nemusí byť stav objektu čistý
+            verifiers.remove(pubKey);
+            return VerifyResult.MALFORMED_SIGNATURE;
         }
-        return false;
+    }
+
+    // overovač, ktorý opúšťa cache, sa vráti vláknu; initVerify ho pripraví pre iný kľúč
+    private static void recycle(Signature sig) {
+        SIGNATURES.get().putIfAbsent(sig.getAlgorithm(), sig);
+    }
 
+    private static Signature threadSignature(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, Signature> signatures = SIGNATURES.get();
+        Signature sig = signatures.get(algorithm);
+        if (sig == null) {
+            sig = Signature.getInstance(algorithm);
+            signatures.put(algorithm, sig);
+        }
+        return sig;
+    }
+
+    /**
+     * Nastaví executor pre {@link #verifyBatch(List)} a {@link #verifyAll(List)},
+     * napr. vlastný {@link ForkJoinPool} alebo executor s virtuálnymi vláknami.
+     */
+    public static void setBatchExecutor(Executor executor) {
+        if (executor == null)
+            throw new IllegalArgumentException("executor je null");
+        batchExecutor = executor;
+    }
+
+    public static VerifyResult[] verifyBatch(List<SignatureCheck> checks) {
+        return verifyBatch(checks, batchExecutor);
+    }
+
+    /**
+     * Overí všetky podpisy paralelne na {@code executor}.
+     *
+     * @return výsledok pre každú kontrolu, v rovnakom poradí ako {@code checks}
+     */
+    public static VerifyResult[] verifyBatch(List<SignatureCheck> checks, Executor executor) {
+        return verifyBatch(checks, executor, Crypto::verify);
+    }
+
+    /** Ako {@link #verifyBatch(List)}, ale každý podpis overí {@code verifier}. */
+    static VerifyResult[] verifyBatch(List<SignatureCheck> checks, Verifier verifier) {
+        return verifyBatch(checks, batchExecutor, verifier);
+    }
+
+    private static VerifyResult[] verifyBatch(List<SignatureCheck> checks, Executor executor, Verifier verifier) {
+        VerifyResult[] results = new VerifyResult[checks.size()];
+        runBatch(checks, executor, verifier, results, null);
+        return results;
+    }
+
+    public static boolean verifyAll(List<SignatureCheck> checks) {
+        return verifyAll(checks, batchExecutor);
+    }
+
+    /**
+     * Overí podpisy paralelne na {@code executor} a skončí pri prvom neplatnom;
+     * ostatné úlohy potom už ďalšie podpisy neoverujú.
+     *
+     * @return true, ak sú všetky podpisy platné
+     */
+    public static boolean verifyAll(List<SignatureCheck> checks, Executor executor) {
+        AtomicBoolean failed = new AtomicBoolean();
+        runBatch(checks, executor, Crypto::verify, null, failed);
+        return !failed.get();
+    }
+
+    private static void runBatch(List<SignatureCheck> checks, Executor executor, Verifier verifier,
+            VerifyResult[] results, AtomicBoolean failed) {
+        int n = checks.size();
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        // viac úsekov ako vlákien, aby sa rozdielne drahé podpisy vyrovnali
+        int chunks = n < MIN_PARALLEL_BATCH ? 1 : Math.min(n, parallelism * 4);
+        if (chunks <= 1) {
+            verifyRange(checks, 0, n, verifier, results, failed);
+            return;
+        }
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) c * n / chunks);
+            int to = (int) ((long) (c + 1) * n / chunks);
+            tasks[c] = CompletableFuture.runAsync(() -> verifyRange(checks, from, to, verifier, results, failed),
+                    executor);
+        }
+        CompletableFuture.allOf(tasks).join();
+    }
+
+    private static void verifyRange(List<SignatureCheck> checks, int from, int to, Verifier verifier,
+            VerifyResult[] results, AtomicBoolean failed) {
+        for (int i = from; i < to; i++) {
+            if (failed != null && failed.get())
+                return;
+            SignatureCheck check = checks.get(i);
+            VerifyResult result = verifier.verify(check.pubKey, check.message, check.signature);
+            if (results != null)
+                results[i] = result;
+            if (failed != null && result != VerifyResult.VALID)
+                failed.set(true);
+        }
     }
 }
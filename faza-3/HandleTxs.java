@@ -1,15 +1,37 @@
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
 public class HandleTxs {
 
+    // zamietnutia na úrovni FINE, úroveň sa nastavuje cez java.util.logging
+    private static final Logger LOG = Logger.getLogger(HandleTxs.class.getName());
+
     public UTXOPool ledger;
+    /** už overené podpisy, môže byť null */
+    private final SignatureCache signatureCache;
     
     /**
      * Vytvorí verejný ledger, ktorého aktuálny UTXOPool (zbierka nevyčerpaných
-     * transakčných výstupov) je {@code utxoPool}. Malo by to vytvoriť obchrannú kópiu
-     * utxoPool pomocou konštruktora UTXOPool (UTXOPool uPool).
+     * transakčných výstupov) je {@code utxoPool}. Ledger je vrstva
+     * {@link UTXOPool#overlay()} nad utxoPool, ten sa preto počas práce s
+     * handlerom nesmie meniť.
      */
     public HandleTxs(UTXOPool utxoPool) {
-      ledger = new UTXOPool(utxoPool);
+      this(utxoPool, null);
+    }
+
+    /**
+     * Ako {@link #HandleTxs(UTXOPool)}, ale podpisy nájdené v {@code signatureCache}
+     * sa znova neoverujú a úspešne overené sa do nej pridajú.
+     */
+    public HandleTxs(UTXOPool utxoPool, SignatureCache signatureCache) {
+      ledger = utxoPool.overlay();
+      this.signatureCache = signatureCache;
     }
 
     public UTXOPool UTXOPoolGet() {
@@ -26,110 +48,299 @@ public class HandleTxs {
      *     výstupných hodnôt; a false inak.
      */
     public boolean txIsValid(Transaction tx) {
-        // na kontrolu (3) (spent transaction outputs)
-        ArrayList<UTXO> stxos = new ArrayList<>();
-
-        // na kontrolu (5)
-        double inputSum = 0;
-        double outputSum = 0;
+        return validate(tx).isValid();
+    }
 
-        int input_index = 0;
+    /**
+     * Ako {@link #txIsValid(Transaction)}, ale pri zamietnutí vráti dôvod a index
+     * vstupu alebo výstupu, ktorý pravidlo porušil. Pravidlá sa kontrolujú po
+     * stupňoch {@link ValidationStage} od najlacnejšieho, podpisy ako posledné.
+     */
+    public ValidationResult validate(Transaction tx) {
+        return validate(tx, null, null, false);
+    }
 
-        // (1) vsetky vystupy narokovane mnou su v aktualnom UTXO poole, cize
-        // pre kazdy moj input pozri ci utxo z predoslej transakcie
-        // je v mojom utxo poole
-        for (Transaction.Input input : tx.getInputs()) {
-            UTXO utxoPrev = new UTXO(input.prevTxHash, input.outputIndex);
+    // signaturesValid sú vopred overené podpisy vstupov z verifySignatures voči
+    // výstupom verified, pri null sa podpisy overujú tu; structureChecked
+    // preskočí stupeň STRUCTURE, ktorý už transakcia prešla
+    private ValidationResult validate(Transaction tx, boolean[] signaturesValid, Transaction.Output[] verified,
+            boolean structureChecked) {
+        ValidationResult result = check(tx, signaturesValid, verified, structureChecked);
+        if (!result.isValid())
+            LOG.fine(() -> "transakcia " + hex(tx.getHash()) + " zamietnutá: " + result);
+        return result;
+    }
 
-            if (!ledger.contains(utxoPrev)) {
-                System.out.println("(1) failed");
-                return false;
-            }
+    // stupne od najlacnejšieho, podpisy ako posledné
+    private ValidationResult check(Transaction tx, boolean[] signaturesValid, Transaction.Output[] verified,
+            boolean structureChecked) {
+        long start = System.nanoTime();
+        ValidationResult result;
+        if (!structureChecked) {
+            result = ValidationStage.STRUCTURE.record(start, checkStructure(tx));
+            if (!result.isValid())
+                return result;
+            start = System.nanoTime();
+        }
 
-            System.out.println("(1) passed");
+        Transaction.Output[] spent = new Transaction.Output[tx.numInputs()];
+        result = ValidationStage.UTXO.record(start, checkInputs(tx, spent));
+        if (!result.isValid())
+            return result;
 
-            // (2) podpisy na každom vstupe transakcie sú platné, cize
-            // pre vsetky outputy napojene na moje inputy skontroluj podpisy
-            Transaction.Output output = ledger.getTxOutput(utxoPrev);
-            if (!Crypto.verifySignature(output.address,
-                                        tx.getRawDataToSign(input_index++),
-                                        input.signature)) {
-                System.out.println("(2) failed");
-                return false;
-            }
+        start = System.nanoTime();
+        return ValidationStage.SIGNATURES.record(start, checkSignatures(tx, spent, signaturesValid, verified));
+    }
 
-            System.out.println("(2) passed");
+    // (3) žiadne UTXO nie je nárokované viackrát, (4) všetky výstupné hodnoty
+    // sú nezáporné a súčet výstupov nepretečie; bez UTXO poolu
+    private ValidationResult checkStructure(Transaction tx) {
+        // na kontrolu (3) (spent transaction outputs)
+        HashSet<UTXO> stxos = tx.numInputs() > 1 ? new HashSet<>() : null;
+        for (int i = 0; i < tx.numInputs(); i++) {
+            Transaction.Input input = tx.getInput(i);
+            if (input.prevTxHashLength() < 0)
+                return ValidationResult.reject(ValidationResult.Reason.MALFORMED, i);
+            if (stxos != null && !stxos.add(input.getUTXO()))
+                return ValidationResult.reject(ValidationResult.Reason.DOUBLE_SPEND, i);
+        }
 
-            // (3) žiadne UTXO nie je nárokované viackrát, 
-            if (stxos.contains(utxoPrev)) {
-                System.out.println("(3) failed");
-                return false;
+        long outputSum = 0;
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            long value = tx.getOutput(i).value;
+            if (value < 0)
+                return ValidationResult.reject(ValidationResult.Reason.NEGATIVE_OUTPUT, i);
+            try {
+                outputSum = Math.addExact(outputSum, value);
+            } catch (ArithmeticException e) {
+                return ValidationResult.reject(ValidationResult.Reason.VALUE_OVERFLOW, i);
             }
-            
-            stxos.add(utxoPrev);
-            System.out.println("(3) passed");
-            
-            // (5)
-            inputSum += output.value;
         }
+        return ValidationResult.VALID;
+    }
 
-        // (4) všetky výstupné hodnoty {@code tx}s sú nezáporné
-        for (Transaction.Output output : tx.getOutputs()) {
-            if (output.value < 0) {
-                System.out.println("(4) failed");
-                return false;
-            } 
-            
-            System.out.println("(4) passed");
-
-            // (5)
-            outputSum += output.value;
-            
-            // (5) súčet vstupných hodnôt {@code tx}s je väčší alebo rovný súčtu jej výstupných hodnôt
-            if (outputSum > inputSum) {
-                System.out.println("(5) failed");
-                return false;
+    // (1) všetky výstupy nárokované transakciou sú v aktuálnom UTXO poole a
+    // (5) súčet vstupných hodnôt je väčší alebo rovný súčtu výstupných;
+    // nájdené výstupy sa uložia do spent pre kontrolu podpisov
+    private ValidationResult checkInputs(Transaction tx, Transaction.Output[] spent) {
+        long inputSum = 0;
+        for (int i = 0; i < spent.length; i++) {
+            // hľadanie priamo podľa bajtov vstupu, bez vytvárania UTXO
+            spent[i] = ledger.getTxOutput(tx.getInput(i));
+            if (spent[i] == null)
+                return ValidationResult.reject(ValidationResult.Reason.MISSING_INPUT, i);
+            try {
+                inputSum = Math.addExact(inputSum, spent[i].value);
+            } catch (ArithmeticException e) {
+                return ValidationResult.reject(ValidationResult.Reason.VALUE_OVERFLOW, i);
             }
+        }
 
-            System.out.println("(5) passed");
+        // súčet výstupov nepretečie, pozri checkStructure
+        long outputSum = 0;
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            outputSum += tx.getOutput(i).value;
+            if (outputSum > inputSum)
+                return ValidationResult.reject(ValidationResult.Reason.INSUFFICIENT_INPUTS, i);
+        }
+        return ValidationResult.VALID;
+    }
 
+    // (2) podpisy na každom vstupe transakcie sú platné; vopred overený podpis
+    // platí, iba ak sa overoval voči tomu istému výstupu, ktorý sa míňa
+    private ValidationResult checkSignatures(Transaction tx, Transaction.Output[] spent, boolean[] signaturesValid,
+            Transaction.Output[] verified) {
+        for (int i = 0; i < spent.length; i++) {
+            boolean isVerified = signaturesValid != null && spent[i].equals(verified[i])
+                    ? signaturesValid[i]
+                    : verifySignature(tx, i, spent[i]);
+            if (!isVerified)
+                return ValidationResult.reject(ValidationResult.Reason.INVALID_SIGNATURE, i);
         }
+        return ValidationResult.VALID;
+    }
 
-        System.out.println("transaction is valid");
-        return true;
+    private static String hex(byte[] hash) {
+        return hash != null ? HexFormat.of().formatHex(hash) : "bez hashu";
     }
    
+    /**
+     * Overí podpisy všetkých vstupov všetkých {@code txs} jednou paralelnou dávkou
+     * cez {@link Crypto#verifyBatch(List)}. Výstup, ktorý vstup míňa, sa hľadá v
+     * ledgeri alebo medzi výstupmi transakcií z {@code txs}, takže dávka pokryje aj
+     * transakcie míňajúce výstupy iných transakcií z tej istej epochy.
+     *
+     * @return pre každú transakciu a každý jej vstup, či je podpis platný; vstup
+     *         bez nájdeného výstupu má false
+     */
+    public boolean[][] verifySignatures(Transaction[] txs) {
+        return verifySignatures(txs, new Transaction.Output[txs.length][]);
+    }
+
+    // do resolved uloží výstupy, voči ktorým sa podpisy overovali
+    private boolean[][] verifySignatures(Transaction[] txs, Transaction.Output[][] resolved) {
+        HashMap<ByteArrayWrapper, Transaction> byHash = new HashMap<>();
+        for (Transaction tx : txs) {
+            if (tx.getHash() != null)
+                byHash.put(new ByteArrayWrapper(tx.getHash()), tx);
+        }
+
+        boolean[][] valid = new boolean[txs.length][];
+        ArrayList<Crypto.SignatureCheck> checks = new ArrayList<>();
+        // pozícia každej kontroly v poli valid a výstup, ktorý vstup míňa
+        ArrayList<int[]> positions = new ArrayList<>();
+        ArrayList<Transaction.Output> spent = new ArrayList<>();
+        for (int t = 0; t < txs.length; t++) {
+            Transaction tx = txs[t];
+            valid[t] = new boolean[tx.numInputs()];
+            resolved[t] = new Transaction.Output[tx.numInputs()];
+            for (int i = 0; i < tx.numInputs(); i++) {
+                Transaction.Input input = tx.getInput(i);
+                Transaction.Output output = ledger.getTxOutput(input);
+                if (output == null) {
+                    Transaction prev = byHash.get(new ByteArrayWrapper(input.getPrevTxHash()));
+                    if (prev != null)
+                        output = prev.getOutput(input.getOutputIndex());
+                }
+                if (output == null)
+                    continue;
+                resolved[t][i] = output;
+                byte[] message = tx.getRawDataToSign(i);
+                if (isSignatureCached(message, input.getSignature(), output)) {
+                    valid[t][i] = true;
+                    continue;
+                }
+                checks.add(new Crypto.SignatureCheck(output.address, message, input.getSignature()));
+                positions.add(new int[] { t, i });
+                spent.add(output);
+            }
+        }
+
+        Crypto.VerifyResult[] results = verifyBySchemes(checks, spent);
+        for (int c = 0; c < results.length; c++) {
+            int[] position = positions.get(c);
+            boolean ok = results[c] == Crypto.VerifyResult.VALID;
+            valid[position[0]][position[1]] = ok;
+            if (ok)
+                cacheSignature(checks.get(c).message, checks.get(c).signature, spent.get(c));
+        }
+        return valid;
+    }
+
+    // každá schéma overí podpisy svojich adries vlastnou dávkou, pozri
+    // SignatureScheme.verifyBatch
+    private static Crypto.VerifyResult[] verifyBySchemes(ArrayList<Crypto.SignatureCheck> checks,
+            ArrayList<Transaction.Output> spent) {
+        LinkedHashMap<SignatureScheme, ArrayList<Integer>> groups = new LinkedHashMap<>();
+        for (int c = 0; c < checks.size(); c++)
+            groups.computeIfAbsent(spent.get(c).handle.getScheme(), s -> new ArrayList<>()).add(c);
+        if (groups.size() == 1)
+            return groups.keySet().iterator().next().verifyBatch(checks);
+
+        Crypto.VerifyResult[] results = new Crypto.VerifyResult[checks.size()];
+        groups.forEach((scheme, members) -> {
+            ArrayList<Crypto.SignatureCheck> batch = new ArrayList<>(members.size());
+            for (int c : members)
+                batch.add(checks.get(c));
+            Crypto.VerifyResult[] batchResults = scheme.verifyBatch(batch);
+            for (int k = 0; k < members.size(); k++)
+                results[members.get(k)] = batchResults[k];
+        });
+        return results;
+    }
+
+    private boolean verifySignature(Transaction tx, int index, Transaction.Output output) {
+        byte[] message = tx.getRawDataToSign(index);
+        byte[] signature = tx.getInput(index).getSignature();
+        if (isSignatureCached(message, signature, output))
+            return true;
+        boolean ok = output.handle.getScheme().verify(output.address, message, signature) == Crypto.VerifyResult.VALID;
+        if (ok)
+            cacheSignature(message, signature, output);
+        return ok;
+    }
+
+    // cache sa pýta na presne tú správu a podpis, ktoré by sa overovali
+    private boolean isSignatureCached(byte[] message, byte[] signature, Transaction.Output output) {
+        return signatureCache != null && signature != null
+                && signatureCache.contains(message, signature, output.handle);
+    }
+
+    private void cacheSignature(byte[] message, byte[] signature, Transaction.Output output) {
+        if (signatureCache != null && signature != null)
+            signatureCache.add(message, signature, output.handle);
+    }
+
     /**
      * Spracováva každú epochu prijímaním neusporiadaného radu navrhovaných
      * transakcií, kontroluje správnosť každej transakcie, vracia pole vzájomne
      * platných prijatých transakcií a aktualizuje aktuálny UTXO pool podľa potreby.
+     * Podpisy sa overujú naraz, pozri {@link #verifySignatures}, ale iba pre
+     * transakcie, ktoré prešli stupňom {@link ValidationStage#STRUCTURE} a ktorých
+     * vstupy sú v ledgeri alebo medzi výstupmi epochy.
      */
     public Transaction[] txHandler(Transaction[] possibleTxs) {
-        ArrayList<Transaction> txsValid = new ArrayList<>();
-        
+        HashSet<ByteArrayWrapper> epoch = new HashSet<>();
+        for (Transaction tx : possibleTxs) {
+            if (tx.getHash() != null)
+                epoch.add(new ByteArrayWrapper(tx.getHash()));
+        }
+        ArrayList<Transaction> candidates = new ArrayList<>();
         for (Transaction tx : possibleTxs) {
+            ValidationResult structure = ValidationStage.STRUCTURE.record(System.nanoTime(), checkStructure(tx));
+            ValidationResult result = structure.isValid()
+                    ? ValidationStage.PRECHECK.record(System.nanoTime(), precheckInputs(tx, epoch))
+                    : structure;
+            if (result.isValid())
+                candidates.add(tx);
+            else
+                LOG.fine(() -> "transakcia " + hex(tx.getHash()) + " zamietnutá pred podpismi: " + result);
+        }
+        Transaction[] txs = candidates.toArray(new Transaction[0]);
+
+        ArrayList<Transaction> txsValid = new ArrayList<>();
+        Transaction.Output[][] verified = new Transaction.Output[txs.length][];
+        boolean[][] signaturesValid = verifySignatures(txs, verified);
+
+        for (int t = 0; t < txs.length; t++) {
+            Transaction tx = txs[t];
             // kontroluje správnosť každej transakcie
-            if (!txIsValid(tx)) {
+            if (!validate(tx, signaturesValid[t], verified[t], true).isValid()) {
                 continue;
             }
-            
+
             txsValid.add(tx);
 
             // aktualizuje aktuálny UTXO pool podľa potreby
             // z inputov transakcie povytahuje UTXOs a zmaze ich z aktualneho UTXO poolu
             for (Transaction.Input input : tx.getInputs()) {
-                UTXO utxoPrev = new UTXO(input.prevTxHash, input.outputIndex);
-                ledger.removeUTXO(utxoPrev);
+                ledger.removeUTXO(input.getUTXO());
             }
 
             // vytvori nove UTXOs z outputov transakcie a popridava ich do aktualneho UTXO poolu
-            for (Transaction.Input input : tx.getInputs()) {
-                UTXO utxoPrev = new UTXO(input.prevTxHash, input.outputIndex);
-                ledger.removeUTXO(utxoPrev);
+            int output_index = 0;
+            for (Transaction.Output output : tx.getOutputs()) {
+                ledger.addUTXO(new UTXO(tx.getHash(), output_index++), output);
             }
         }
 
         // vracia pole vzájomne platných prijatých transakcií
         return txsValid.toArray(new Transaction[0]);
     }
+
+    // vstup, ktorý nie je v ledgeri ani nemíňa transakciu z epochy, nebude
+    // platný v žiadnom poradí spracovania. Ak sú v ledgeri všetky vstupy, platí
+    // to aj pre nedostatočný súčet vstupov: skoršie transakcie ich môžu iba minúť.
+    private ValidationResult precheckInputs(Transaction tx, HashSet<ByteArrayWrapper> epoch) {
+        boolean inLedger = true;
+        for (int i = 0; i < tx.numInputs(); i++) {
+            Transaction.Input input = tx.getInput(i);
+            if (ledger.getTxOutput(input) != null)
+                continue;
+            if (!epoch.contains(new ByteArrayWrapper(input.getPrevTxHash())))
+                return ValidationResult.reject(ValidationResult.Reason.MISSING_INPUT, i);
+            inLedger = false;
+        }
+        return inLedger ? checkInputs(tx, new Transaction.Output[tx.numInputs()]) : ValidationResult.VALID;
+    }
 }
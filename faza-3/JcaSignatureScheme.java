@@ -0,0 +1,128 @@
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.AlgorithmParameters;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.function.Predicate;
+
+/** {@link SignatureScheme} nad algoritmami dostupnými v JDK */
+class JcaSignatureScheme implements SignatureScheme {
+
+    private final byte id;
+    private final String name;
+    private final String signatureAlgorithm;
+    private final String keyAlgorithm;
+    private final Predicate<PublicKey> accepts;
+    private final AlgorithmParameterSpec keyParams;
+
+    /**
+     * @param keyAlgorithm algoritmus pre {@link KeyFactory} a {@link KeyPairGenerator}
+     * @param accepts      kľúče, ktoré táto schéma overuje
+     */
+    JcaSignatureScheme(byte id, String name, String signatureAlgorithm, String keyAlgorithm,
+            Predicate<PublicKey> accepts) {
+        this(id, name, signatureAlgorithm, keyAlgorithm, null, accepts);
+    }
+
+    /** @param keyParams parametre pre {@link KeyPairGenerator}, napr. krivka; null pre predvolené */
+    JcaSignatureScheme(byte id, String name, String signatureAlgorithm, String keyAlgorithm,
+            AlgorithmParameterSpec keyParams, Predicate<PublicKey> accepts) {
+        this.id = id;
+        this.name = name;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keyParams = keyParams;
+        this.accepts = accepts;
+    }
+
+    /**
+     * @return predikát kľúčov EC na krivke {@code curve}, napr. "secp256r1";
+     *         parametre krivky sa zistia raz. Ak JDK krivku nepozná, neprijme nič.
+     */
+    static Predicate<PublicKey> onCurve(String curve) {
+        ECParameterSpec expected;
+        try {
+            AlgorithmParameters named = AlgorithmParameters.getInstance("EC");
+            named.init(new ECGenParameterSpec(curve));
+            expected = named.getParameterSpec(ECParameterSpec.class);
+        } catch (GeneralSecurityException e) {
+            return key -> false;
+        }
+        return key -> {
+            if (!(key instanceof ECPublicKey))
+                return false;
+            ECParameterSpec params = ((ECPublicKey) key).getParams();
+            // ECParameterSpec nemá equals, krivka a bod áno
+            return params == expected || params.getCurve().equals(expected.getCurve())
+                    && params.getGenerator().equals(expected.getGenerator())
+                    && params.getOrder().equals(expected.getOrder()) && params.getCofactor() == expected.getCofactor();
+        };
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean accepts(PublicKey key) {
+        return accepts.test(key);
+    }
+
+    public String signatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    public byte[] encodeKey(PublicKey key) {
+        if (key instanceof RSAPublicKey) {
+            // rovnaké bajty ako pred zavedením schém, hashe transakcií sa nemenia
+            RSAPublicKey rsa = (RSAPublicKey) key;
+            byte[] exponent = rsa.getPublicExponent().toByteArray();
+            byte[] modulus = rsa.getModulus().toByteArray();
+            return ByteBuffer.allocate(exponent.length + modulus.length).put(exponent).put(modulus).array();
+        }
+        return key.getEncoded();
+    }
+
+    public PublicKey decodeKey(byte[] encoded) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("neplatný kľúč " + name, e);
+        }
+    }
+
+    public KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+            if (keyParams != null)
+                generator.initialize(keyParams);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(name + " nie je dostupné", e);
+        }
+    }
+
+    public byte[] sign(PrivateKey key, byte[] message) {
+        try {
+            Signature sig = Signature.getInstance(signatureAlgorithm);
+            sig.initSign(key);
+            sig.update(message);
+            return sig.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("podpis " + name + " zlyhal", e);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * {@link UTXOStore} v pamäťovo mapovanom súbore, mimo haldy. Súbor je tabuľka s
+ * otvoreným adresovaním ako {@link UTXOTable}, každé UTXO zaberá jeden slot s
+ * pevnou dĺžkou {@value #SLOT} B:
+ *
+ * <pre>
+ * i64 hash64 (0 = prázdny) | i32 index | i64 hodnota | i32 číslo adresy | u8 dĺžka hashu | 32 B hash transakcie
+ * </pre>
+ *
+ * Adresy sa ukladajú raz, do vedľajšieho súboru {@code <súbor>.addr} (u8 schéma,
+ * i16 dĺžka, 32 B odtlačok, X.509), a slot obsahuje iba ich poradové číslo.
+ * Ani adresy nie sú v halde: úložisko si pamätá iba pozíciu každého záznamu a
+ * index odtlačkov (spolu asi 28 B na adresu) a dekóduje ich až pri čítaní, s
+ * malou cache naposledy použitých. Po {@link #flush()} alebo {@link #close()}
+ * sa úložisko dá znova otvoriť bez prestavby; adresy sa pritom iba prejdú,
+ * nedekódujú ani nehashujú.
+ * <p>
+ * Mapuje sa jeden blok, preto najviac 2^24 slotov, čo pri zaplnení 0,7 je asi
+ * 11 miliónov UTXO. Nie je vláknovo bezpečné.
+ */
+public class MappedUTXOStore implements UTXOStore, Closeable, Flushable {
+
+    static final int SLOT = 64;
+
+    private static final int MAGIC = 0x5554584f;
+    private static final int VERSION = 2;
+    private static final int HEADER = 64;
+    private static final int MIN_BUCKETS = 1 << 10;
+    private static final int MAX_BUCKETS = 1 << 24;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    // hlavička
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_BUCKETS = 8;
+    private static final int H_SIZE = 12;
+    private static final int H_ADDRESSES = 16;
+
+    // slot
+    private static final int S_HASH = 0;
+    private static final int S_INDEX = 8;
+    private static final int S_VALUE = 12;
+    private static final int S_ADDRESS = 20;
+    private static final int S_LENGTH = 24;
+    private static final int S_KEY = 25;
+
+    // záznam adresy
+    private static final int A_SCHEME = 0;
+    private static final int A_LENGTH = 1;
+    private static final int A_FINGERPRINT = 3;
+    private static final int A_ENCODED = A_FINGERPRINT + Address.FINGERPRINT_LENGTH;
+
+    /** počet naposledy dekódovaných adries v cache, mocnina 2 */
+    private static final int ADDRESS_CACHE = 1 << 12;
+
+    private final Path path;
+    private final Path addressPath;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int buckets;
+    private int size;
+
+    private final FileChannel addressChannel;
+    /** súbor adries na čítanie, pri raste sa namapuje znova */
+    private volatile MappedByteBuffer addressMap;
+    private int addressFileSize;
+    private int addressCount;
+    private int[] addressOffsets = new int[16];
+    // otvorené adresovanie: prvých 8 B odtlačku a číslo adresy + 1 (0 = prázdne)
+    private long[] fingerprintKeys = new long[64];
+    private int[] fingerprintIds = new int[64];
+    // dekódovaná adresa spolu s číslom, aby ju súbežní čitatelia videli celú
+    private final DecodedAddress[] decoded = new DecodedAddress[ADDRESS_CACHE];
+
+    private static final class DecodedAddress {
+        final int id;
+        final Address address;
+
+        DecodedAddress(int id, Address address) {
+            this.id = id;
+            this.address = address;
+        }
+    }
+
+    private MappedUTXOStore(Path path, int expectedSize) throws IOException {
+        this.path = path;
+        this.addressPath = path.resolveSibling(path.getFileName() + ".addr");
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        addressChannel = FileChannel.open(addressPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // prázdny súbor, napr. z Files.createTempFile, je nové úložisko
+            if (channel.size() > 0) {
+                openExisting();
+            } else {
+                buckets = MIN_BUCKETS;
+                while (buckets * LOAD_FACTOR < expectedSize && buckets < MAX_BUCKETS)
+                    buckets <<= 1;
+                buffer = map(channel, buckets);
+                addressChannel.truncate(0);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            addressChannel.close();
+            throw e;
+        }
+    }
+
+    private void openExisting() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER)
+            throw new IOException("súbor je kratší ako hlavička UTXO úložiska: " + path);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(fileSize, HEADER + (long) MAX_BUCKETS * SLOT));
+        if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION)
+            throw new IOException("súbor nie je UTXO úložisko verzie " + VERSION + ": " + path);
+        buckets = buffer.getInt(H_BUCKETS);
+        size = buffer.getInt(H_SIZE);
+        if (Integer.bitCount(buckets) != 1 || buckets < MIN_BUCKETS || buckets > MAX_BUCKETS
+                || fileSize != HEADER + (long) buckets * SLOT || size < 0 || size > buckets)
+            throw new IOException("poškodená hlavička UTXO úložiska: " + path);
+        readAddresses(buffer.getInt(H_ADDRESSES));
+    }
+
+    /** Otvorí úložisko v súbore {@code path}, prípadne vytvorí prázdne. */
+    public static MappedUTXOStore open(Path path) throws IOException {
+        return new MappedUTXOStore(path, 0);
+    }
+
+    /**
+     * Ako {@link #open(Path)}, nové úložisko však hneď dostane miesto pre
+     * {@code expectedSize} UTXO.
+     */
+    public static MappedUTXOStore open(Path path, int expectedSize) throws IOException {
+        return new MappedUTXOStore(path, expectedSize);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int buckets) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) buckets * SLOT);
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_BUCKETS, buckets);
+        return buffer;
+    }
+
+    // prejde záznamy adries bez dekódovania, odtlačky sú uložené v súbore
+    private void readAddresses(int count) throws IOException {
+        long fileSize = addressChannel.size();
+        if (count < 0 || fileSize > Integer.MAX_VALUE)
+            throw new IOException("poškodený súbor adries: " + addressPath);
+        MappedByteBuffer in = addressChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        int p = 0;
+        for (int i = 0; i < count; i++) {
+            if (p + A_ENCODED > fileSize)
+                throw new IOException("súbor adries má menej ako " + count + " záznamov: " + addressPath);
+            int end = p + A_ENCODED + (in.getShort(p + A_LENGTH) & 0xffff);
+            if (end > fileSize)
+                throw new IOException("súbor adries má menej ako " + count + " záznamov: " + addressPath);
+            indexAddress(in.getLong(p + A_FINGERPRINT), p);
+            p = end;
+        }
+        // zvyšok po páde medzi zápisom adresy a hlavičky sa prepíše
+        addressChannel.truncate(p);
+        addressFileSize = p;
+        addressMap = in;
+    }
+
+    private static long fingerprintKey(byte[] fingerprint) {
+        return ByteBuffer.wrap(fingerprint).getLong();
+    }
+
+    private static int fingerprintSlot(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    // pridá adresu so záznamom na pozícii offset do poľa pozícií a indexu odtlačkov
+    private void indexAddress(long key, int offset) {
+        if (addressCount == addressOffsets.length)
+            addressOffsets = Arrays.copyOf(addressOffsets, 2 * addressCount);
+        addressOffsets[addressCount++] = offset;
+        if (2 * addressCount > fingerprintKeys.length) {
+            long[] oldKeys = fingerprintKeys;
+            int[] oldIds = fingerprintIds;
+            fingerprintKeys = new long[2 * oldKeys.length];
+            fingerprintIds = new int[2 * oldIds.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldIds[i] != 0)
+                    insertFingerprint(oldKeys[i], oldIds[i]);
+            }
+        }
+        insertFingerprint(key, addressCount);
+    }
+
+    private void insertFingerprint(long key, int idPlusOne) {
+        int mask = fingerprintKeys.length - 1;
+        int i = fingerprintSlot(key, mask);
+        while (fingerprintIds[i] != 0)
+            i = (i + 1) & mask;
+        fingerprintKeys[i] = key;
+        fingerprintIds[i] = idPlusOne;
+    }
+
+    private MappedByteBuffer addressMap(int end) {
+        MappedByteBuffer map = addressMap;
+        if (map != null && map.capacity() >= end)
+            return map;
+        try {
+            map = addressChannel.map(FileChannel.MapMode.READ_ONLY, 0, addressFileSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        addressMap = map;
+        return map;
+    }
+
+    private int addressId(Address address) {
+        byte[] fingerprint = address.fingerprint();
+        long key = fingerprintKey(fingerprint);
+        int mask = fingerprintKeys.length - 1;
+        for (int i = fingerprintSlot(key, mask); fingerprintIds[i] != 0; i = (i + 1) & mask) {
+            int id = fingerprintIds[i] - 1;
+            if (fingerprintKeys[i] == key && fingerprintEquals(addressOffsets[id], fingerprint))
+                return id;
+        }
+
+        byte[] encoded = address.getEncoded();
+        ByteBuffer record = ByteBuffer.allocate(A_ENCODED + encoded.length);
+        record.put(address.getScheme().id()).putShort((short) encoded.length).put(fingerprint).put(encoded).flip();
+        if ((long) addressFileSize + record.remaining() > Integer.MAX_VALUE)
+            throw new IllegalStateException("súbor adries je plný: " + addressCount + " adries");
+        try {
+            addressChannel.write(record, addressFileSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int id = addressCount;
+        indexAddress(key, addressFileSize);
+        addressFileSize += A_ENCODED + encoded.length;
+        buffer.putInt(H_ADDRESSES, addressCount);
+        cacheAddress(id, address);
+        return id;
+    }
+
+    private boolean fingerprintEquals(int offset, byte[] fingerprint) {
+        MappedByteBuffer map = addressMap(offset + A_ENCODED);
+        for (int i = 0; i < fingerprint.length; i++) {
+            if (map.get(offset + A_FINGERPRINT + i) != fingerprint[i])
+                return false;
+        }
+        return true;
+    }
+
+    /** @return adresa s číslom {@code id}, z cache alebo dekódovaná zo súboru */
+    private Address address(int id) {
+        DecodedAddress cached = decoded[id & (ADDRESS_CACHE - 1)];
+        if (cached != null && cached.id == id)
+            return cached.address;
+        int offset = addressOffsets[id];
+        MappedByteBuffer map = addressMap(offset + A_ENCODED);
+        int length = map.getShort(offset + A_LENGTH) & 0xffff;
+        byte[] encoded = new byte[length];
+        addressMap(offset + A_ENCODED + length).get(offset + A_ENCODED, encoded);
+        SignatureScheme scheme = SignatureScheme.forId(map.get(offset + A_SCHEME));
+        Address address = Address.intern(scheme.decodeKey(encoded));
+        cacheAddress(id, address);
+        return address;
+    }
+
+    private void cacheAddress(int id, Address address) {
+        decoded[id & (ADDRESS_CACHE - 1)] = new DecodedAddress(id, address);
+    }
+
+    /** @return počet rôznych adries v súbore adries */
+    public int addressCount() {
+        return addressCount;
+    }
+
+    private static int position(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    private static int home(long hash, int buckets) {
+        return (int) (hash ^ (hash >>> 32)) & (buckets - 1);
+    }
+
+    // slot s daným kľúčom, alebo -(prázdny slot, kam by patril) - 1
+    private int find(long hash, byte[] txHash, int offset, int length, int index) {
+        int mask = buckets - 1;
+        for (int slot = home(hash, buckets);; slot = (slot + 1) & mask) {
+            int p = position(slot);
+            long h = buffer.getLong(p + S_HASH);
+            if (h == 0)
+                return -slot - 1;
+            if (h == hash && buffer.getInt(p + S_INDEX) == index && buffer.get(p + S_LENGTH) == length
+                    && keyEquals(p + S_KEY, txHash, offset, length))
+                return slot;
+        }
+    }
+
+    private boolean keyEquals(int p, byte[] txHash, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(p + i) != txHash[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    public Transaction.Output get(byte[] txHash, int offset, int length, int index) {
+        if (length > UTXOTable.HASH_BYTES)
+            return null;
+        int slot = find(UTXOTable.hash64(txHash, offset, length, index), txHash, offset, length, index);
+        if (slot < 0)
+            return null;
+        int p = position(slot);
+        return new Transaction.Output(buffer.getLong(p + S_VALUE), address(buffer.getInt(p + S_ADDRESS)));
+    }
+
+    /** @throws IllegalArgumentException ak je hash transakcie dlhší ako {@link UTXOTable#HASH_BYTES} */
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length > UTXOTable.HASH_BYTES)
+            throw new IllegalArgumentException("hash transakcie má viac ako " + UTXOTable.HASH_BYTES + " B");
+        long hash = UTXOTable.hash64(txHash, 0, txHash.length, utxo.getIndex());
+        int slot = find(hash, txHash, 0, txHash.length, utxo.getIndex());
+        if (slot < 0 && size + 1 > buckets * LOAD_FACTOR) {
+            grow();
+            slot = find(hash, txHash, 0, txHash.length, utxo.getIndex());
+        }
+        int p = position(slot >= 0 ? slot : -slot - 1);
+        buffer.putLong(p + S_HASH, hash);
+        buffer.putInt(p + S_INDEX, utxo.getIndex());
+        buffer.putLong(p + S_VALUE, txOut.value);
+        buffer.putInt(p + S_ADDRESS, addressId(txOut.handle));
+        buffer.put(p + S_LENGTH, (byte) txHash.length);
+        buffer.put(p + S_KEY, txHash);
+        if (slot < 0)
+            buffer.putInt(H_SIZE, ++size);
+    }
+
+    // tabuľka sa prepíše do dvojnásobného súboru vedľa a ten nahradí pôvodný;
+    // pôvodný ostane otvorený, kým nový nie je namapovaný a presunutý, takže po
+    // chybe úložisko pokračuje s pôvodnou tabuľkou
+    private void grow() {
+        if (buckets >= MAX_BUCKETS)
+            throw new IllegalStateException("úložisko je plné: " + size + " UTXO");
+        int newBuckets = buckets * 2;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel tmpChannel = null;
+        try {
+            tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            MappedByteBuffer bigger = map(tmpChannel, newBuckets);
+            int mask = newBuckets - 1;
+            for (int slot = 0; slot < buckets; slot++) {
+                int p = position(slot);
+                long hash = buffer.getLong(p + S_HASH);
+                if (hash == 0)
+                    continue;
+                int target = home(hash, newBuckets);
+                while (bigger.getLong(position(target) + S_HASH) != 0)
+                    target = (target + 1) & mask;
+                bigger.put(position(target), buffer, p, SLOT);
+            }
+            bigger.putInt(H_SIZE, size);
+            bigger.putInt(H_ADDRESSES, addressCount);
+            bigger.force();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel old = channel;
+            channel = tmpChannel;
+            buffer = bigger;
+            buckets = newBuckets;
+            tmpChannel = null;
+            old.close();
+        } catch (IOException e) {
+            if (tmpChannel != null) {
+                try {
+                    tmpChannel.close();
+                    Files.deleteIfExists(tmp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void remove(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length > UTXOTable.HASH_BYTES)
+            return;
+        int slot = find(UTXOTable.hash64(txHash, 0, txHash.length, utxo.getIndex()), txHash, 0, txHash.length,
+                utxo.getIndex());
+        if (slot < 0)
+            return;
+        buffer.putInt(H_SIZE, --size);
+        // posun späť ako v UTXOTable
+        int mask = buckets - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; buffer.getLong(position(next) + S_HASH) != 0; next = (next + 1) & mask) {
+            int home = home(buffer.getLong(position(next) + S_HASH), buckets);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                buffer.put(position(hole), buffer, position(next), SLOT);
+                hole = next;
+            }
+        }
+        buffer.putLong(position(hole) + S_HASH, 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        byte[] key = new byte[UTXOTable.HASH_BYTES];
+        for (int slot = 0; slot < buckets; slot++) {
+            int p = position(slot);
+            if (buffer.getLong(p + S_HASH) == 0)
+                continue;
+            int length = buffer.get(p + S_LENGTH);
+            buffer.get(p + S_KEY, key, 0, length);
+            action.accept(new UTXO(key, 0, length, buffer.getInt(p + S_INDEX)),
+                    new Transaction.Output(buffer.getLong(p + S_VALUE), address(buffer.getInt(p + S_ADDRESS))));
+        }
+    }
+
+    /**
+     * @return spliterator nad slotmi súboru, bez kópie v halde; úložisko sa počas
+     *         prechodu nesmie meniť
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        return new SlotSpliterator(0, buckets);
+    }
+
+    private final class SlotSpliterator implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        private final ByteBuffer view = buffer.duplicate();
+        private final byte[] key = new byte[UTXOTable.HASH_BYTES];
+        private int slot;
+        private final int end;
+
+        SlotSpliterator(int slot, int end) {
+            this.slot = slot;
+            this.end = end;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            for (; slot < end; slot++) {
+                int p = position(slot);
+                if (view.getLong(p + S_HASH) == 0)
+                    continue;
+                slot++;
+                int length = view.get(p + S_LENGTH);
+                view.get(p + S_KEY, key, 0, length);
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(
+                        new UTXO(key, 0, length, view.getInt(p + S_INDEX)),
+                        new Transaction.Output(view.getLong(p + S_VALUE), address(view.getInt(p + S_ADDRESS)))));
+                return true;
+            }
+            return false;
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            int mid = (slot + end) >>> 1;
+            if (end - slot < 1024)
+                return null;
+            SlotSpliterator prefix = new SlotSpliterator(slot, mid);
+            slot = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return (long) (end - slot) * size / buckets;
+        }
+
+        public int characteristics() {
+            return DISTINCT | NONNULL;
+        }
+    }
+
+    /**
+     * @return kópia v halde úmerná veľkosti úložiska; súbor sa nekopíruje.
+     *         {@link UTXOPool#flatten()} ju preto nevolá, pooly blokov ostávajú
+     *         vrstvami nad poolom tohto úložiska.
+     */
+    public UTXOStore copy() {
+        UTXOStore copy = new TrieUTXOStore();
+        forEach(copy::put);
+        return copy;
+    }
+
+    /** zapíše zmeny na disk */
+    public void flush() throws IOException {
+        addressChannel.force(false);
+        buffer.force();
+    }
+
+    public void close() throws IOException {
+        flush();
+        addressChannel.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,53 @@
+import java.security.PublicKey;
+import java.util.Arrays;
+
+/**
+ * Zaregistrované {@link SignatureScheme}. Polia sa pri registrácii kopírujú,
+ * hľadanie preto nepotrebuje zámok.
+ */
+final class SchemeRegistry {
+
+    /** schémy v poradí registrácie */
+    private static volatile SignatureScheme[] schemes = new SignatureScheme[0];
+    /** schéma podľa identifikátora bez znamienka */
+    private static volatile SignatureScheme[] byId = new SignatureScheme[256];
+
+    static {
+        register(SignatureScheme.RSA);
+        register(SignatureScheme.ED25519);
+        register(SignatureScheme.ECDSA);
+    }
+
+    private SchemeRegistry() {
+    }
+
+    static synchronized void register(SignatureScheme scheme) {
+        int id = scheme.id() & 0xff;
+        SignatureScheme existing = byId[id];
+        if (existing == scheme)
+            return;
+        if (existing != null)
+            throw new IllegalArgumentException("identifikátor " + scheme.id() + " už má schéma " + existing.name());
+        SignatureScheme[] nextById = byId.clone();
+        nextById[id] = scheme;
+        SignatureScheme[] next = Arrays.copyOf(schemes, schemes.length + 1);
+        next[schemes.length] = scheme;
+        byId = nextById;
+        schemes = next;
+    }
+
+    static SignatureScheme forKey(PublicKey key) {
+        for (SignatureScheme scheme : schemes) {
+            if (scheme.accepts(key))
+                return scheme;
+        }
+        throw new IllegalArgumentException("nepodporovaný typ kľúča: " + key.getAlgorithm());
+    }
+
+    static SignatureScheme forId(byte id) {
+        SignatureScheme scheme = byId[id & 0xff];
+        if (scheme == null)
+            throw new IllegalArgumentException("neznáma schéma podpisu: " + id);
+        return scheme;
+    }
+}
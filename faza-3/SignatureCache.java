@@ -0,0 +1,104 @@
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ohraničená, vláknovo bezpečná cache úspešne overených podpisov. Záznam je
+ * presne to, čo sa overilo: trojica (podpísaná správa, podpis, odtlačok
+ * adresy), napr. {@link Transaction#getRawDataToSign(int)} vstupu a jeho
+ * podpis. Nezávisí teda od hashu transakcie, ktorý po zmene bez
+ * {@link Transaction#finalize()} neplatí. Transakcia overená pri vstupe do
+ * poolu tak pri pridaní bloku nepotrebuje znova RSA.
+ * <p>
+ * Pri zaplnení sa odstráni najdlhšie nepoužitý záznam (LRU): podpis, ktorý
+ * sa overil v poole a ešte čaká na blok, zásah v cache posunie dopredu.
+ * Odtlačok kľúča sa počíta mimo zámku, pod zámkom je iba prístup do mapy.
+ */
+public class SignatureCache {
+
+    private final int capacity;
+    /** kľúče v poradí od najdlhšie nepoužitého, prístup iba pod zámkom {@code this} */
+    private final LinkedHashMap<Key, Boolean> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // SHA-256 z trojice, aby mal kľúč pevnú dĺžku a rovnomerný hashCode; dĺžka
+    // správy oddeľuje správu od podpisu
+    private static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        Key(byte[] message, byte[] signature, Address address) {
+            MessageDigest md = Crypto.sha256();
+            int length = message.length;
+            md.update((byte) (length >>> 24));
+            md.update((byte) (length >>> 16));
+            md.update((byte) (length >>> 8));
+            md.update((byte) length);
+            md.update(message);
+            md.update(signature);
+            md.update(address.fingerprint());
+            digest = md.digest();
+            hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(digest, ((Key) other).digest);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public SignatureCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("kapacita musí byť kladná: " + capacity);
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > SignatureCache.this.capacity;
+            }
+        };
+    }
+
+    /** @return true, ak bol {@code signature} správy {@code message} kľúčom {@code address} už overený */
+    public boolean contains(byte[] message, byte[] signature, Address address) {
+        Key key = new Key(message, signature, address);
+        boolean found;
+        synchronized (this) {
+            found = entries.get(key) != null;
+        }
+        if (found)
+            hits.increment();
+        else
+            misses.increment();
+        return found;
+    }
+
+    /** zapamätá si úspešne overený podpis {@code signature} správy {@code message} */
+    public void add(byte[] message, byte[] signature, Address address) {
+        Key key = new Key(message, signature, address);
+        synchronized (this) {
+            entries.put(key, Boolean.TRUE);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,92 @@
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.EdECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+
+/**
+ * Schéma digitálneho podpisu používaná pre adresy: kódovanie kľúča, podpis a
+ * overenie. Schéma adresy sa určuje podľa jej verejného kľúča, pozri
+ * {@link #forKey(PublicKey)}; ďalšie schémy sa pridávajú cez
+ * {@link #register(SignatureScheme)}.
+ */
+public interface SignatureScheme {
+
+    /** pôvodná schéma, RSA so SHA-256 */
+    SignatureScheme RSA = new JcaSignatureScheme((byte) 1, "RSA", "SHA256withRSA", "RSA",
+            key -> key instanceof RSAPublicKey);
+    /** Ed25519, 32 B kľúče a 64 B podpisy */
+    SignatureScheme ED25519 = new JcaSignatureScheme((byte) 2, "Ed25519", "Ed25519", "Ed25519",
+            key -> key instanceof EdECPublicKey && "Ed25519".equals(((EdECPublicKey) key).getParams().getName()));
+    /** ECDSA na krivke P-256 (secp256r1) so SHA-256; kľúče na iných krivkách neprijme */
+    SignatureScheme ECDSA = new JcaSignatureScheme((byte) 3, "ECDSA", "SHA256withECDSA", "EC",
+            new ECGenParameterSpec("secp256r1"), JcaSignatureScheme.onCurve("secp256r1"));
+
+    /** @return identifikátor schémy vo {@link WireFormat} */
+    byte id();
+
+    String name();
+
+    /** @return true, ak táto schéma overuje podpisy kľúča {@code key} */
+    boolean accepts(PublicKey key);
+
+    /** @return názov algoritmu pre {@link java.security.Signature} */
+    String signatureAlgorithm();
+
+    /**
+     * @return kódovanie kľúča, ktoré ide do getRawTx a podpisových dát. RSA
+     *         zachováva pôvodné exponent||modulus, ostatné schémy X.509
+     */
+    byte[] encodeKey(PublicKey key);
+
+    /** @return kľúč z X.509 kódovania */
+    PublicKey decodeKey(byte[] encoded);
+
+    KeyPair generateKeyPair();
+
+    byte[] sign(PrivateKey key, byte[] message);
+
+    /** Predvolene overí podpis algoritmom {@link #signatureAlgorithm()} tejto schémy. */
+    default Crypto.VerifyResult verify(PublicKey key, byte[] message, byte[] signature) {
+        return Crypto.verify(signatureAlgorithm(), key, message, signature);
+    }
+
+    /**
+     * Overí podpisy kľúčov tejto schémy. Predvolene paralelne cez
+     * {@link #verify} tejto schémy; schéma s dávkovým overovaním ho prepíše.
+     *
+     * @return výsledok pre každú kontrolu, v rovnakom poradí ako {@code checks}
+     */
+    default Crypto.VerifyResult[] verifyBatch(List<Crypto.SignatureCheck> checks) {
+        return Crypto.verifyBatch(checks, this::verify);
+    }
+
+    /**
+     * Pridá schému, ktorú potom nájdu {@link #forKey(PublicKey)} a
+     * {@link #forId(byte)}. Kľúč, ktorý prijíma viac schém, patrí skôr
+     * zaregistrovanej; RSA, Ed25519 a ECDSA sú zaregistrované vopred.
+     *
+     * @throws IllegalArgumentException ak má iná schéma rovnaký identifikátor
+     */
+    static void register(SignatureScheme scheme) {
+        SchemeRegistry.register(scheme);
+    }
+
+    /**
+     * @return schéma pre kľúč {@code key}
+     * @throws IllegalArgumentException ak kľúč neprijíma žiadna schéma
+     */
+    static SignatureScheme forKey(PublicKey key) {
+        return SchemeRegistry.forKey(key);
+    }
+
+    /**
+     * @return schéma s identifikátorom {@code id}
+     * @throws IllegalArgumentException ak taká schéma neexistuje
+     */
+    static SignatureScheme forId(byte id) {
+        return SchemeRegistry.forId(id);
+    }
+}
@@ -1,34 +1,73 @@
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
 public class Transaction {
 
+    /** počet najmenších jednotiek (ako satoshi v Bitcoine) v jednej minci */
+    public static final long COIN = 100_000_000L;
+
+    /**
+     * Pohľad na {@code index}-tý vstup transakcie. Dáta vstupu sú uložené priamo v
+     * transakcii, pohľad si nedrží žiadne vlastné polia. Po {@code removeInput}
+     * staršie pohľady ukazujú na posunuté indexy.
+     */
     public class Input {
-        /** hash transakcie, ktorej výstup sa ide použiť */
-        public byte[] prevTxHash;
-        /** použitý index výstupu v predchádzajúcej transakcii */
-        public int outputIndex;
-        /** podpis vytvorený na kontrolu platnosti */
-        public byte[] signature;
+        private final int index;
+
+        private Input(int index) {
+            this.index = index;
+        }
 
-        public Input(byte[] prevHash, int index) {
-            if (prevHash == null)
-                prevTxHash = null;
-            else
-                prevTxHash = Arrays.copyOf(prevHash, prevHash.length);
-            outputIndex = index;
+        /** @return kópia hashu transakcie, ktorej výstup sa ide použiť */
+        public byte[] getPrevTxHash() {
+            return copyRegion(inMeta[index * INPUT_STRIDE + HASH_OFF], inMeta[index * INPUT_STRIDE + HASH_LEN]);
+        }
+
+        /** @return použitý index výstupu v predchádzajúcej transakcii */
+        public int getOutputIndex() {
+            return inMeta[index * INPUT_STRIDE + OUTPUT_INDEX];
+        }
+
+        /** @return kópia podpisu vytvoreného na kontrolu platnosti */
+        public byte[] getSignature() {
+            return copyRegion(inMeta[index * INPUT_STRIDE + SIG_OFF], inMeta[index * INPUT_STRIDE + SIG_LEN]);
+        }
+
+        /** @return UTXO, ktoré tento vstup míňa */
+        public UTXO getUTXO() {
+            return new UTXO(inData, prevTxHashOffset(), prevTxHashLength(), getOutputIndex());
         }
 
         public void addSignature(byte[] sig) {
-            if (sig == null)
-                signature = null;
-            else
-                signature = Arrays.copyOf(sig, sig.length);
+            Transaction.this.addSignature(sig, index);
+        }
+
+        // prístup k uloženým bajtom bez kópie
+        byte[] data() {
+            return inData;
+        }
+
+        int prevTxHashOffset() {
+            return inMeta[index * INPUT_STRIDE + HASH_OFF];
+        }
+
+        /** @return dĺžka prevTxHash, -1 pre null */
+        int prevTxHashLength() {
+            return inMeta[index * INPUT_STRIDE + HASH_LEN];
+        }
+
+        int signatureOffset() {
+            return inMeta[index * INPUT_STRIDE + SIG_OFF];
+        }
+
+        /** @return dĺžka podpisu, -1 pre null */
+        int signatureLength() {
+            return inMeta[index * INPUT_STRIDE + SIG_LEN];
         }
 
         public boolean equals(Object other) {
@@ -41,41 +80,41 @@ public class Transaction {
 
             Input in = (Input) other;
 
-            if (prevTxHash.length != in.prevTxHash.length)
-                return false;
-            for (int i = 0; i < prevTxHash.length; i++) {
-                if (prevTxHash[i] != in.prevTxHash[i])
-                    return false;
-            }
-            if (outputIndex != in.outputIndex)
+            if (!regionEquals(inData, prevTxHashOffset(), prevTxHashLength(),
+                    in.data(), in.prevTxHashOffset(), in.prevTxHashLength()))
                 return false;
-            if (signature.length != in.signature.length)
+            if (getOutputIndex() != in.getOutputIndex())
                 return false;
-            for (int i = 0; i < signature.length; i++) {
-                if (signature[i] != in.signature[i])
-                    return false;
-            }
-            return true;
+            return regionEquals(inData, signatureOffset(), signatureLength(),
+                    in.data(), in.signatureOffset(), in.signatureLength());
         }
 
         public int hashCode() {
             int hash = 1;
-            hash = hash * 17 + Arrays.hashCode(prevTxHash);
-            hash = hash * 31 + outputIndex;
-            hash = hash * 31 + Arrays.hashCode(signature);
+            hash = hash * 17 + regionHashCode(prevTxHashOffset(), prevTxHashLength());
+            hash = hash * 31 + getOutputIndex();
+            hash = hash * 31 + regionHashCode(signatureOffset(), signatureLength());
             return hash;
         }
     }
 
-    public class Output {
-        /** hodnota výstupu v bitcoinoch  */
-        public double value;
+    /** Nemenný výstup transakcie. */
+    public static class Output {
+        /** hodnota výstupu v najmenších jednotkách mince, pozri {@link Transaction#COIN} */
+        public final long value;
         /** adresa alebo verejný kľúč prijímateľa */
-        public PublicKey address;
+        public final PublicKey address;
+        /** internovaná adresa s predpočítaným kódovaním */
+        public final Address handle;
+
+        public Output(long v, PublicKey addr) {
+            this(v, Address.intern(addr));
+        }
 
-        public Output(double v, PublicKey addr) {
+        Output(long v, Address handle) {
             value = v;
-            address = addr;
+            address = handle.getKey();
+            this.handle = handle;
         }
 
         public boolean equals(Object other) {
@@ -90,48 +129,89 @@ public class Transaction {
 
             if (value != op.value)
                 return false;
-            if (!((RSAPublicKey) address).getPublicExponent().equals(
-                    ((RSAPublicKey) op.address).getPublicExponent()))
-                return false;
-            if (!((RSAPublicKey) address).getModulus().equals(
-                    ((RSAPublicKey) op.address).getModulus()))
-                return false;
-            return true;
+            return handle.equals(op.handle);
         }
 
         public int hashCode() {
             int hash = 1;
-            hash = hash * 17 + (int) value * 10000;
-            hash = hash * 31 + ((RSAPublicKey) address).getPublicExponent().hashCode();
-            hash = hash * 31 + ((RSAPublicKey) address).getModulus().hashCode();
+            hash = hash * 17 + Long.hashCode(value);
+            hash = hash * 31 + handle.hashCode();
             return hash;
         }
     }
 
+    // rozloženie inMeta: pre každý vstup INPUT_STRIDE intov
+    private static final int INPUT_STRIDE = 5;
+    private static final int OUTPUT_INDEX = 0;
+    private static final int HASH_OFF = 1;
+    private static final int HASH_LEN = 2;
+    private static final int SIG_OFF = 3;
+    private static final int SIG_LEN = 4;
+
+    private static final int[] NO_INTS = new int[0];
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final long[] NO_LONGS = new long[0];
+    private static final Address[] NO_ADDRESSES = new Address[0];
+
     /** hash transakcie, jej unikátne id */
     private byte[] hash;
-    private ArrayList<Input> inputs;
-    private ArrayList<Output> outputs;
+    /**
+     * Vstupy sú uložené kompaktne: čísla v {@code inMeta} a všetky hashe a podpisy
+     * za sebou v jednom poli {@code inData}. Dĺžka -1 znamená null.
+     */
+    private int[] inMeta;
+    private byte[] inData;
+    private int inDataLength;
+    /** bajty v inData, ktoré už nepatria žiadnemu vstupu */
+    private int inDataGarbage;
+    private int numInputs;
+    /** výstupy ako paralelné polia hodnôt a internovaných adries */
+    private long[] outValues;
+    private Address[] outAddresses;
+    private int numOutputs;
     private boolean coinbase;
+    /**
+     * zakódované výstupy, spoločné pre podpisové dáta všetkých vstupov aj pre
+     * getRawTx; null, ak sa výstupy zmenili a treba ich zakódovať znova
+     */
+    private byte[] rawOutputs;
+    /** true, ak sa transakcia od posledného finalize() zmenila */
+    private boolean hashStale = true;
+    /** počet zmien od vytvorenia, podľa neho {@link Block} pozná zmenenú transakciu */
+    private int modCount;
 
     public Transaction() {
-        inputs = new ArrayList<Input>();
-        outputs = new ArrayList<Output>();
+        inMeta = NO_INTS;
+        inData = NO_BYTES;
+        outValues = NO_LONGS;
+        outAddresses = NO_ADDRESSES;
         coinbase = false;
     }
 
     public Transaction(Transaction tx) {
         hash = tx.hash.clone();
-        inputs = new ArrayList<Input>(tx.inputs);
-        outputs = new ArrayList<Output>(tx.outputs);
+        inMeta = Arrays.copyOf(tx.inMeta, tx.numInputs * INPUT_STRIDE);
+        numInputs = tx.numInputs;
+        inData = tx.inData;
+        inDataLength = tx.inDataLength;
+        inDataGarbage = tx.inDataGarbage;
+        // compact() zapisuje do nového poľa, pole originálu sa nezmení
+        if (inDataGarbage > 0)
+            compact();
+        else
+            inData = Arrays.copyOf(tx.inData, tx.inDataLength);
+        outValues = Arrays.copyOf(tx.outValues, tx.numOutputs);
+        outAddresses = Arrays.copyOf(tx.outAddresses, tx.numOutputs);
+        numOutputs = tx.numOutputs;
+        rawOutputs = tx.rawOutputs;
+        hashStale = tx.hashStale;
         coinbase = false;
     }
 
     /** vytvorenie coinbase transakcie s hodnotou {@code coin} a volanie finalize */
-    public Transaction(double coin, PublicKey address) {
+    public Transaction(long coin, PublicKey address) {
+        this();
         coinbase = true;
-        inputs = new ArrayList<Input>();
-        outputs = new ArrayList<Output>();
         addOutput(coin, address);
         finalize();
     }
@@ -140,26 +220,73 @@ public class Transaction {
         return coinbase;
     }
 
+    void setCoinbase(boolean coinbase) {
+        this.coinbase = coinbase;
+    }
+
     public void addInput(byte[] prevTxHash, int outputIndex) {
-        Input in = new Input(prevTxHash, outputIndex);
-        inputs.add(in);
+        if (inMeta.length < (numInputs + 1) * INPUT_STRIDE)
+            inMeta = Arrays.copyOf(inMeta, Math.max(INPUT_STRIDE, inMeta.length * 2));
+        int meta = numInputs * INPUT_STRIDE;
+        inMeta[meta + OUTPUT_INDEX] = outputIndex;
+        inMeta[meta + HASH_OFF] = inDataLength;
+        inMeta[meta + HASH_LEN] = appendRegion(prevTxHash);
+        inMeta[meta + SIG_OFF] = inDataLength;
+        inMeta[meta + SIG_LEN] = -1;
+        numInputs++;
+        modified();
     }
 
-    public void addOutput(double value, PublicKey address) {
-        Output op = new Output(value, address);
-        outputs.add(op);
+    public void addOutput(long value, PublicKey address) {
+        if (outValues.length == numOutputs) {
+            int capacity = Math.max(2, numOutputs * 2);
+            outValues = Arrays.copyOf(outValues, capacity);
+            outAddresses = Arrays.copyOf(outAddresses, capacity);
+        }
+        outValues[numOutputs] = value;
+        outAddresses[numOutputs] = Address.intern(address);
+        numOutputs++;
+        rawOutputs = null;
+        modified();
     }
 
+    /**
+     * Bajty odstráneného vstupu ostanú v inData, kým nepresiahnu polovicu poľa
+     * alebo kým ho nezmenší {@link #trimToSize()}.
+     */
     public void removeInput(int index) {
-        inputs.remove(index);
+        checkInputIndex(index);
+        int meta = index * INPUT_STRIDE;
+        inDataGarbage += Math.max(0, inMeta[meta + HASH_LEN]) + Math.max(0, inMeta[meta + SIG_LEN]);
+        System.arraycopy(inMeta, (index + 1) * INPUT_STRIDE, inMeta, index * INPUT_STRIDE,
+                (numInputs - index - 1) * INPUT_STRIDE);
+        numInputs--;
+        modified();
+        compactIfWasteful();
+    }
+
+    private void modified() {
+        hashStale = true;
+        modCount++;
+    }
+
+    /** @return počítadlo, ktoré sa zvýši pri každej zmene vstupov, podpisov alebo výstupov */
+    int modCount() {
+        return modCount;
+    }
+
+    private void checkInputIndex(int index) {
+        if (index < 0 || index >= numInputs)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numInputs);
     }
 
     public void removeInput(UTXO ut) {
-        for (int i = 0; i < inputs.size(); i++) {
-            Input in = inputs.get(i);
-            UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
-            if (u.equals(ut)) {
-                inputs.remove(i);
+        for (int i = 0; i < numInputs; i++) {
+            Input in = new Input(i);
+            if (in.getOutputIndex() == ut.getIndex()
+                    && regionEquals(inData, in.prevTxHashOffset(), in.prevTxHashLength(),
+                            ut.getTxHash(), 0, ut.getTxHash().length)) {
+                removeInput(i);
                 return;
             }
         }
@@ -167,126 +294,281 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // i-ty vstup a všetky výstupy
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
-        if (index > inputs.size())
+        if (index >= numInputs)
             return null;
-        Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                sigData.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                sigData.add(addressModulus[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        int meta = index * INPUT_STRIDE;
+        byte[] outputs = getRawOutputs();
+        int hashLength = Math.max(0, inMeta[meta + HASH_LEN]);
+        ByteBuffer sigData = ByteBuffer.allocate(hashLength + Integer.BYTES + outputs.length);
+        sigData.put(inData, inMeta[meta + HASH_OFF], hashLength);
+        sigData.putInt(inMeta[meta + OUTPUT_INDEX]);
+        sigData.put(outputs);
+        return sigData.array();
     }
 
+    /**
+     * Podpis, ktorý sa zmestí na miesto starého, ho prepíše; inak sa pridá na
+     * koniec inData a starý ostane nevyužitý ako pri {@link #removeInput(int)}.
+     */
     public void addSignature(byte[] signature, int index) {
-        inputs.get(index).addSignature(signature);
+        checkInputIndex(index);
+        int meta = index * INPUT_STRIDE;
+        int oldLength = Math.max(0, inMeta[meta + SIG_LEN]);
+        if (signature != null && signature.length <= oldLength) {
+            System.arraycopy(signature, 0, inData, inMeta[meta + SIG_OFF], signature.length);
+            inMeta[meta + SIG_LEN] = signature.length;
+            inDataGarbage += oldLength - signature.length;
+        } else {
+            inMeta[meta + SIG_OFF] = inDataLength;
+            inMeta[meta + SIG_LEN] = appendRegion(signature);
+            inDataGarbage += oldLength;
+        }
+        modified();
+        compactIfWasteful();
+    }
+
+    /** @return presná dĺžka kódovania z {@link #getRawTx()} v bajtoch */
+    public int rawTxSize() {
+        int size = 0;
+        for (int i = 0; i < numInputs; i++) {
+            int meta = i * INPUT_STRIDE;
+            size += Math.max(0, inMeta[meta + HASH_LEN]) + Integer.BYTES + Math.max(0, inMeta[meta + SIG_LEN]);
+        }
+        return size + getRawOutputs().length;
+    }
+
+    /**
+     * Zapíše kódovanie transakcie do {@code out} na jeho aktuálnu pozíciu, bez
+     * medzikópií. V {@code out} musí zostávať aspoň {@link #rawTxSize()} bajtov.
+     */
+    public void writeRawTx(ByteBuffer out) {
+        for (int i = 0; i < numInputs; i++) {
+            int meta = i * INPUT_STRIDE;
+            out.put(inData, inMeta[meta + HASH_OFF], Math.max(0, inMeta[meta + HASH_LEN]));
+            out.putInt(inMeta[meta + OUTPUT_INDEX]);
+            out.put(inData, inMeta[meta + SIG_OFF], Math.max(0, inMeta[meta + SIG_LEN]));
+        }
+        out.put(getRawOutputs());
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
-        for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
-        }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                rawTx.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                rawTx.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                rawTx.add(addressModulus[i]);
-        }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+        ByteBuffer rawTx = ByteBuffer.allocate(rawTxSize());
+        writeRawTx(rawTx);
+        return rawTx.array();
+    }
+
+    /**
+     * Zakóduje všetky výstupy raz a výsledok drží, kým sa výstupy nezmenia, takže
+     * podpisové dáta pre N vstupov nestoja N-násobné kódovanie výstupov.
+     */
+    private byte[] getRawOutputs() {
+        if (rawOutputs != null)
+            return rawOutputs;
+        int size = 0;
+        for (int i = 0; i < numOutputs; i++)
+            size += Long.BYTES + outAddresses[i].getRaw().length;
+        ByteBuffer raw = ByteBuffer.allocate(size);
+        for (int i = 0; i < numOutputs; i++) {
+            raw.putLong(outValues[i]);
+            raw.put(outAddresses[i].getRaw());
+        }
+        rawOutputs = raw.array();
+        return rawOutputs;
     }
 
+    /**
+     * Vloží kódovanie z {@link #getRawTx()} do {@code md} po jednotlivých poliach,
+     * bez skladania celého poľa bajtov.
+     */
+    public void updateDigest(MessageDigest md) {
+        for (int i = 0; i < numInputs; i++) {
+            int meta = i * INPUT_STRIDE;
+            int outputIndex = inMeta[meta + OUTPUT_INDEX];
+            md.update(inData, inMeta[meta + HASH_OFF], Math.max(0, inMeta[meta + HASH_LEN]));
+            md.update((byte) (outputIndex >>> 24));
+            md.update((byte) (outputIndex >>> 16));
+            md.update((byte) (outputIndex >>> 8));
+            md.update((byte) outputIndex);
+            md.update(inData, inMeta[meta + SIG_OFF], Math.max(0, inMeta[meta + SIG_LEN]));
+        }
+        md.update(getRawOutputs());
+    }
+
+    /** prepočíta hash, iba ak sa transakcia od posledného volania zmenila */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        if (hash != null && !hashStale)
+            return;
+        trimToSize();
+        MessageDigest md = Crypto.sha256();
+        updateDigest(md);
+        hash = md.digest();
+        hashStale = false;
+    }
+
+    /** zmenší vnútorné polia na skutočne použitú veľkosť */
+    public void trimToSize() {
+        if (inMeta.length != numInputs * INPUT_STRIDE)
+            inMeta = Arrays.copyOf(inMeta, numInputs * INPUT_STRIDE);
+        if (inDataGarbage > 0)
+            compact();
+        else if (inData.length != inDataLength)
+            inData = Arrays.copyOf(inData, inDataLength);
+        if (outValues.length != numOutputs) {
+            outValues = Arrays.copyOf(outValues, numOutputs);
+            outAddresses = Arrays.copyOf(outAddresses, numOutputs);
         }
     }
 
+    // odhad veľkosti v halde pri 64-bitovom HotSpot s compressed oops:
+    // hlavička objektu 12 B, poľa 16 B, odkaz 4 B, zarovnanie na 8 B
+    static final int REFERENCE_BYTES = 4;
+
+    static long objectBytes(int fieldBytes) {
+        return (12 + fieldBytes + 7) & ~7L;
+    }
+
+    static long arrayBytes(int length, int elementBytes) {
+        return (16 + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    /**
+     * @return odhad bajtov v halde, ktoré patria iba tejto transakcii: objekt,
+     *         hash a polia vstupov a výstupov. Nezahŕňa internované adresy,
+     *         ktoré sa zdieľajú, ani zakódované výstupy pre podpisové dáta.
+     */
+    long heapBytes() {
+        // 6 odkazov, 5 int a 2 boolean
+        long bytes = objectBytes(6 * REFERENCE_BYTES + 5 * Integer.BYTES + 2);
+        if (hash != null)
+            bytes += arrayBytes(hash.length, 1);
+        return bytes + arrayBytes(inMeta.length, Integer.BYTES) + arrayBytes(inData.length, 1)
+                + arrayBytes(outValues.length, Long.BYTES) + arrayBytes(outAddresses.length, REFERENCE_BYTES);
+    }
+
     public void setHash(byte[] h) {
         hash = h;
+        hashStale = false;
     }
 
     public byte[] getHash() {
         return hash;
     }
 
-    public ArrayList<Input> getInputs() {
-        return inputs;
+    /** @return pohľad na vstupy; prvky sa vytvárajú až pri prístupe */
+    public List<Input> getInputs() {
+        return new AbstractList<Input>() {
+            public Input get(int index) {
+                Objects.checkIndex(index, numInputs);
+                return new Input(index);
+            }
+
+            public int size() {
+                return numInputs;
+            }
+        };
     }
 
-    public ArrayList<Output> getOutputs() {
-        return outputs;
+    /** @return pohľad na výstupy; prvky sa vytvárajú až pri prístupe */
+    public List<Output> getOutputs() {
+        return new AbstractList<Output>() {
+            public Output get(int index) {
+                Objects.checkIndex(index, numOutputs);
+                return new Output(outValues[index], outAddresses[index]);
+            }
+
+            public int size() {
+                return numOutputs;
+            }
+        };
     }
 
+    /** @return {@code index}-tý vstup, null pre index mimo rozsahu */
     public Input getInput(int index) {
-        if (index < inputs.size()) {
-            return inputs.get(index);
+        if (index >= 0 && index < numInputs) {
+            return new Input(index);
         }
         return null;
     }
 
+    /** @return {@code index}-tý výstup, null pre index mimo rozsahu */
     public Output getOutput(int index) {
-        if (index < outputs.size()) {
-            return outputs.get(index);
+        if (index >= 0 && index < numOutputs) {
+            return new Output(outValues[index], outAddresses[index]);
         }
         return null;
     }
 
     public int numInputs() {
-        return inputs.size();
+        return numInputs;
     }
 
     public int numOutputs() {
-        return outputs.size();
+        return numOutputs;
+    }
+
+    // pridá b na koniec inData a vráti jeho dĺžku, -1 pre null
+    private int appendRegion(byte[] b) {
+        if (b == null)
+            return -1;
+        if (inData.length < inDataLength + b.length)
+            inData = Arrays.copyOf(inData, Math.max(inDataLength + b.length, inData.length * 2));
+        System.arraycopy(b, 0, inData, inDataLength, b.length);
+        inDataLength += b.length;
+        return b.length;
+    }
+
+    // nevyužité bajty sa upracú, keď tvoria viac ako polovicu inData; cena
+    // upratania sa tak rozloží na zmeny, ktoré ich vytvorili
+    private void compactIfWasteful() {
+        if (inDataGarbage > inDataLength / 2)
+            compact();
+    }
+
+    // skopíruje hashe a podpisy vstupov do nového poľa presnej veľkosti
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < numInputs; i++) {
+            int meta = i * INPUT_STRIDE;
+            live += Math.max(0, inMeta[meta + HASH_LEN]) + Math.max(0, inMeta[meta + SIG_LEN]);
+        }
+        byte[] data = new byte[live];
+        int length = 0;
+        for (int i = 0; i < numInputs; i++) {
+            int meta = i * INPUT_STRIDE;
+            length = moveRegion(data, length, meta + HASH_OFF, meta + HASH_LEN);
+            length = moveRegion(data, length, meta + SIG_OFF, meta + SIG_LEN);
+        }
+        inData = data;
+        inDataLength = length;
+        inDataGarbage = 0;
+    }
+
+    private int moveRegion(byte[] data, int length, int offsetSlot, int lengthSlot) {
+        int regionLength = Math.max(0, inMeta[lengthSlot]);
+        System.arraycopy(inData, inMeta[offsetSlot], data, length, regionLength);
+        inMeta[offsetSlot] = length;
+        return length + regionLength;
+    }
+
+    private byte[] copyRegion(int offset, int length) {
+        if (length < 0)
+            return null;
+        return Arrays.copyOfRange(inData, offset, offset + length);
+    }
+
+    private int regionHashCode(int offset, int length) {
+        if (length < 0)
+            return 0;
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + inData[i];
+        return hash;
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        if (aLength < 0 || bLength < 0)
+            return aLength == bLength;
+        return Arrays.equals(a, aOffset, aOffset + aLength, b, bOffset, bOffset + bLength);
     }
 
     public boolean equals(Object other) {
@@ -0,0 +1,245 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.PublicKey;
+import java.util.Objects;
+
+/**
+ * Pohľad na transakciu zakódovanú vo {@link WireFormat} priamo v
+ * {@link ByteBuffer} (heap, direct aj memory-mapped), bez vytvárania objektov
+ * {@link Transaction.Input} a {@link Transaction.Output}. Jeden pohľad sa dá
+ * opakovane použiť cez {@link #wrap(ByteBuffer, int)}; po zahriatí už
+ * nealokuje. Čítanie nemení pozíciu ani limit buffra.
+ */
+public class TransactionView {
+
+    // pre každý vstup pozície: prevTxHash, outputIndex, signature
+    private static final int INPUT_STRIDE = 3;
+    // adresa výstupu nasleduje za hodnotou a bajtom schémy
+    private static final int ADDRESS_OFF = Long.BYTES + 1;
+    // najkratší vstup a výstup, na odmietnutie nezmyselných počtov pred alokáciou
+    private static final int MIN_INPUT_BYTES = Short.BYTES + Integer.BYTES + Short.BYTES;
+    private static final int MIN_OUTPUT_BYTES = ADDRESS_OFF + Short.BYTES;
+
+    private ByteBuffer buf;
+    private int start;
+    private int end;
+    private int numInputs;
+    private int numOutputs;
+    private int[] inputPos = new int[INPUT_STRIDE * 4];
+    private int[] outputPos = new int[4];
+
+    /**
+     * Nastaví pohľad na transakciu začínajúcu na {@code offset} a skontroluje jej
+     * štruktúru. Transakcia môže končiť kdekoľvek pred limitom buffra.
+     *
+     * @throws IllegalArgumentException ak má transakcia neznámu verziu alebo
+     *                                  nevojde sa do buffra
+     */
+    public TransactionView wrap(ByteBuffer buf, int offset) {
+        return parse(buf, offset, buf.limit());
+    }
+
+    /**
+     * Ako {@link #wrap(ByteBuffer, int)} pre transakciu v rámci dĺžky
+     * {@code length}, napr. v bloku: transakcia nesmie presiahnuť rámec a musí
+     * ho celý vyplniť.
+     *
+     * @throws IllegalArgumentException ak rámec nie je v buffri alebo ho
+     *                                  transakcia nevyplní presne
+     */
+    public TransactionView wrap(ByteBuffer buf, int offset, int length) {
+        if (offset < 0 || length < 0 || length > buf.limit() - offset)
+            throw new IllegalArgumentException("rámec transakcie presahuje koniec buffra");
+        parse(buf, offset, offset + length);
+        if (end != offset + length)
+            throw new IllegalArgumentException("transakcia nevyplní svoj rámec: " + size() + " z " + length + " B");
+        return this;
+    }
+
+    private TransactionView parse(ByteBuffer buf, int offset, int limit) {
+        if (buf.order() != ByteOrder.BIG_ENDIAN)
+            throw new IllegalArgumentException("buffer musí byť BIG_ENDIAN");
+        this.buf = buf;
+        this.start = offset;
+        int pos = offset;
+        check(pos, limit);
+        check(pos + 2, limit);
+        if (buf.get(pos) != WireFormat.VERSION)
+            throw new IllegalArgumentException("neznáma verzia transakcie: " + buf.get(pos));
+        pos = skipBytes(pos + 2, limit);
+
+        check(pos + Integer.BYTES, limit);
+        numInputs = buf.getInt(pos);
+        pos += Integer.BYTES;
+        if (numInputs < 0)
+            throw new IllegalArgumentException("záporný počet vstupov");
+        if (numInputs > (limit - pos) / MIN_INPUT_BYTES)
+            throw new IllegalArgumentException("počet vstupov " + numInputs + " presahuje koniec buffra");
+        if (inputPos.length < numInputs * INPUT_STRIDE)
+            inputPos = new int[Math.max(numInputs * INPUT_STRIDE, inputPos.length * 2)];
+        for (int i = 0; i < numInputs; i++) {
+            inputPos[i * INPUT_STRIDE] = pos;
+            pos = skipBytes(pos, limit);
+            check(pos + Integer.BYTES, limit);
+            inputPos[i * INPUT_STRIDE + 1] = pos;
+            pos += Integer.BYTES;
+            inputPos[i * INPUT_STRIDE + 2] = pos;
+            pos = skipBytes(pos, limit);
+        }
+
+        check(pos + Integer.BYTES, limit);
+        numOutputs = buf.getInt(pos);
+        pos += Integer.BYTES;
+        if (numOutputs < 0)
+            throw new IllegalArgumentException("záporný počet výstupov");
+        if (numOutputs > (limit - pos) / MIN_OUTPUT_BYTES)
+            throw new IllegalArgumentException("počet výstupov " + numOutputs + " presahuje koniec buffra");
+        if (outputPos.length < numOutputs)
+            outputPos = new int[Math.max(numOutputs, outputPos.length * 2)];
+        for (int i = 0; i < numOutputs; i++) {
+            check(pos + ADDRESS_OFF, limit);
+            outputPos[i] = pos;
+            pos = skipBytes(pos + ADDRESS_OFF, limit);
+        }
+        end = pos;
+        return this;
+    }
+
+    /** @return dĺžka zakódovanej transakcie v bajtoch */
+    public int size() {
+        return end - start;
+    }
+
+    public boolean isCoinbase() {
+        return (buf.get(start + 1) & WireFormat.FLAG_COINBASE) != 0;
+    }
+
+    /** @return hash uvedený odosielateľom; nie je overený voči obsahu */
+    public byte[] getHash() {
+        return copyBytes(start + 2);
+    }
+
+    public int numInputs() {
+        return numInputs;
+    }
+
+    public int numOutputs() {
+        return numOutputs;
+    }
+
+    // polia pozícií sa medzi wrap nezmenšujú, index mimo rozsahu by čítal
+    // pozície predošlej transakcie
+    private int inputAt(int index, int field) {
+        return inputPos[Objects.checkIndex(index, numInputs) * INPUT_STRIDE + field];
+    }
+
+    private int outputAt(int index) {
+        return outputPos[Objects.checkIndex(index, numOutputs)];
+    }
+
+    public int prevTxHashLength(int index) {
+        return buf.getShort(inputAt(index, 0));
+    }
+
+    /** @return true, ak má {@code index}-tý vstup prevTxHash rovný {@code hash} */
+    public boolean prevTxHashEquals(int index, byte[] hash) {
+        return bytesEqual(inputAt(index, 0), hash);
+    }
+
+    /** skopíruje prevTxHash {@code index}-tého vstupu do {@code dst} od {@code off} */
+    public void copyPrevTxHash(int index, byte[] dst, int off) {
+        int pos = inputAt(index, 0);
+        buf.get(pos + Short.BYTES, dst, off, buf.getShort(pos));
+    }
+
+    public byte[] getPrevTxHash(int index) {
+        return copyBytes(inputAt(index, 0));
+    }
+
+    public int outputIndex(int index) {
+        return buf.getInt(inputAt(index, 1));
+    }
+
+    public byte[] getSignature(int index) {
+        return copyBytes(inputAt(index, 2));
+    }
+
+    public long value(int index) {
+        return buf.getLong(outputAt(index));
+    }
+
+    public int addressLength(int index) {
+        return buf.getShort(outputAt(index) + ADDRESS_OFF);
+    }
+
+    /**
+     * @return true, ak je adresa {@code index}-tého výstupu zakódovaná ako
+     *         {@code encoded} (X.509)
+     */
+    public boolean addressEquals(int index, byte[] encoded) {
+        return bytesEqual(outputAt(index) + ADDRESS_OFF, encoded);
+    }
+
+    /** @return schéma podpisu adresy {@code index}-tého výstupu */
+    public SignatureScheme scheme(int index) {
+        return SignatureScheme.forId(buf.get(outputAt(index) + Long.BYTES));
+    }
+
+    public PublicKey getAddress(int index) {
+        return scheme(index).decodeKey(copyBytes(outputAt(index) + ADDRESS_OFF));
+    }
+
+    /** Vytvorí z pohľadu bežnú {@link Transaction} a prepočíta jej hash. */
+    public Transaction toTransaction() {
+        Transaction tx = new Transaction();
+        for (int i = 0; i < numInputs; i++) {
+            tx.addInput(getPrevTxHash(i), outputIndex(i));
+            tx.addSignature(getSignature(i), i);
+        }
+        for (int i = 0; i < numOutputs; i++)
+            tx.addOutput(value(i), getAddress(i));
+        tx.setCoinbase(isCoinbase());
+        tx.finalize();
+        return tx;
+    }
+
+    private boolean bytesEqual(int pos, byte[] b) {
+        int len = buf.getShort(pos);
+        if (b == null)
+            return len < 0;
+        if (len != b.length)
+            return false;
+        pos += Short.BYTES;
+        for (int i = 0; i < len; i++) {
+            if (buf.get(pos + i) != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    private byte[] copyBytes(int pos) {
+        int len = buf.getShort(pos);
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        buf.get(pos + Short.BYTES, b, 0, len);
+        return b;
+    }
+
+    private int skipBytes(int pos, int limit) {
+        check(pos + Short.BYTES, limit);
+        int len = buf.getShort(pos);
+        if (len < -1)
+            throw new IllegalArgumentException("záporná dĺžka poľa: " + len);
+        pos += Short.BYTES;
+        if (len > 0)
+            pos += len;
+        check(pos, limit);
+        return pos;
+    }
+
+    private static void check(int pos, int limit) {
+        if (pos > limit || pos < 0)
+            throw new IllegalArgumentException("transakcia presahuje koniec buffra");
+    }
+}
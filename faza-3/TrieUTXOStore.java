@@ -0,0 +1,54 @@
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+
+/** {@link UTXOStore} nad perzistentnou {@link UTXOTrie}, kópia je O(1) */
+class TrieUTXOStore implements UTXOStore {
+
+    private UTXOTrie trie;
+
+    TrieUTXOStore() {
+        this(UTXOTrie.EMPTY);
+    }
+
+    private TrieUTXOStore(UTXOTrie trie) {
+        this.trie = trie;
+    }
+
+    public Transaction.Output get(byte[] txHash, int offset, int length, int index) {
+        return trie.get(txHash, offset, length, index);
+    }
+
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        trie = trie.with(utxo, txOut);
+    }
+
+    public void remove(UTXO utxo) {
+        trie = trie.without(utxo);
+    }
+
+    public int size() {
+        return trie.size();
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        trie.forEach(action);
+    }
+
+    /** prechádza nemennú trie z času volania, bez kópie */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        return trie.spliterator();
+    }
+
+    public boolean concurrentReads() {
+        return true;
+    }
+
+    public boolean persistent() {
+        return true;
+    }
+
+    public UTXOStore copy() {
+        return new TrieUTXOStore(trie);
+    }
+}
@@ -17,6 +17,12 @@ public class UTXO implements Comparable<UTXO> {
         this.index = index;
     }
 
+    /** UTXO s hashom {@code buf[offset .. offset+length)} */
+    UTXO(byte[] buf, int offset, int length, int index) {
+        this.txHash = Arrays.copyOfRange(buf, offset, offset + length);
+        this.index = index;
+    }
+
     /** @return transakčný hash tohto UTXO */
     public byte[] getTxHash() {
         return txHash;
@@ -57,12 +63,32 @@ public class UTXO implements Comparable<UTXO> {
      * (t.j. utxo1.equals (utxo2) => utxo1.hashCode () == utxo2.hashCode ())
      */
     public int hashCode() {
+        return hashCode(txHash, 0, txHash.length, index);
+    }
+
+    /**
+     * @return {@link #hashCode()} UTXO s hashom {@code buf[offset .. offset+length)}
+     *         a indexom {@code index}, bez vytvárania UTXO
+     */
+    static int hashCode(byte[] buf, int offset, int length, int index) {
+        int bytesHash = 1;
+        for (int i = offset; i < offset + length; i++)
+            bytesHash = 31 * bytesHash + buf[i];
         int hash = 1;
         hash = hash * 17 + index;
-        hash = hash * 31 + Arrays.hashCode(txHash);
+        hash = hash * 31 + bytesHash;
         return hash;
     }
 
+    /**
+     * @return true, ak má toto UTXO hash {@code buf[offset .. offset+length)} a
+     *         index {@code index}
+     */
+    boolean equals(byte[] buf, int offset, int length, int index) {
+        return this.index == index
+                && Arrays.equals(txHash, 0, txHash.length, buf, offset, offset + length);
+    }
+
     /** Porovná toto UTXO so špecifikovaným v {@code utxo} */
     public int compareTo(UTXO utxo) {
         byte[] hash = utxo.txHash;
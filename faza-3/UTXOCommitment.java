@@ -0,0 +1,157 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Priebežný odtlačok množiny UTXO nezávislý od poradia: súčet SHA-256 hashov
+ * jednotlivých UTXO ako 256-bitových čísel modulo 2^256. Pridanie a odobratie
+ * UTXO je O(1) (jeden SHA-256), dve množiny sa dajú porovnať bez triedenia a
+ * súčty častí sa dajú spočítať nezávisle a potom sčítať.
+ * <p>
+ * Spolu s odtlačkom sa udržuje počet UTXO, ich celková hodnota a veľkosť v
+ * kódovaní ako vo {@link WireFormat} (UTXO: bytes hash transakcie, i32 index;
+ * výstup: i64 hodnota, u8 schéma, bytes X.509 adresa).
+ * <p>
+ * Hash UTXO je SHA-256 z u8 dĺžky hashu transakcie, hashu, i32 indexu, i64
+ * hodnoty a odtlačku adresy {@link Address#getFingerprint()}.
+ */
+public final class UTXOCommitment {
+
+    // 256-bitový súčet, sum[0] je najvyššie slovo
+    private final long[] sum = new long[4];
+    private long count;
+    private long totalValue;
+    private long serializedSize;
+
+    public UTXOCommitment() {
+    }
+
+    private UTXOCommitment(UTXOCommitment other) {
+        System.arraycopy(other.sum, 0, sum, 0, sum.length);
+        count = other.count;
+        totalValue = other.totalValue;
+        serializedSize = other.serializedSize;
+    }
+
+    UTXOCommitment copy() {
+        return new UTXOCommitment(this);
+    }
+
+    /**
+     * započíta UTXO {@code utxo} s výstupom {@code txOut}
+     *
+     * @throws ArithmeticException ak celková hodnota pretečie; odtlačok sa vtedy nezmení
+     */
+    public void add(UTXO utxo, Transaction.Output txOut) {
+        totalValue = Math.addExact(totalValue, txOut.value);
+        addWords(entryHash(utxo, txOut));
+        count++;
+        serializedSize += entrySize(utxo, txOut);
+    }
+
+    /**
+     * odpočíta UTXO pridané cez {@link #add}
+     *
+     * @throws ArithmeticException ak celková hodnota pretečie; odtlačok sa vtedy nezmení
+     */
+    public void remove(UTXO utxo, Transaction.Output txOut) {
+        totalValue = Math.subtractExact(totalValue, txOut.value);
+        subtractWords(entryHash(utxo, txOut));
+        count--;
+        serializedSize -= entrySize(utxo, txOut);
+    }
+
+    private void subtractWords(long[] h) {
+        long borrow = 0;
+        for (int i = sum.length - 1; i >= 0; i--) {
+            long d = sum[i] - h[i];
+            long b1 = Long.compareUnsigned(sum[i], h[i]) < 0 ? 1 : 0;
+            long t = d - borrow;
+            long b2 = Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+            sum[i] = t;
+            borrow = b1 | b2;
+        }
+    }
+
+    /** pripočíta odtlačok disjunktnej množiny {@code other} */
+    public void add(UTXOCommitment other) {
+        totalValue = Math.addExact(totalValue, other.totalValue);
+        addWords(other.sum);
+        count += other.count;
+        serializedSize += other.serializedSize;
+    }
+
+    /** odpočíta odtlačok podmnožiny {@code other} pridanej cez {@link #add} */
+    public void remove(UTXOCommitment other) {
+        totalValue = Math.subtractExact(totalValue, other.totalValue);
+        subtractWords(other.sum);
+        count -= other.count;
+        serializedSize -= other.serializedSize;
+    }
+
+    private void addWords(long[] h) {
+        long carry = 0;
+        for (int i = sum.length - 1; i >= 0; i--) {
+            long s = sum[i] + h[i];
+            long c1 = Long.compareUnsigned(s, sum[i]) < 0 ? 1 : 0;
+            long t = s + carry;
+            long c2 = Long.compareUnsigned(t, s) < 0 ? 1 : 0;
+            sum[i] = t;
+            carry = c1 | c2;
+        }
+    }
+
+    private static long[] entryHash(UTXO utxo, Transaction.Output txOut) {
+        MessageDigest md = Crypto.sha256();
+        byte[] txHash = utxo.getTxHash();
+        ByteBuffer head = ByteBuffer.allocate(Integer.BYTES + Long.BYTES);
+        md.update((byte) txHash.length);
+        md.update(txHash);
+        head.putInt(utxo.getIndex()).putLong(txOut.value);
+        md.update(head.array());
+        md.update(txOut.handle.fingerprint());
+        ByteBuffer digest = ByteBuffer.wrap(md.digest());
+        return new long[] { digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong() };
+    }
+
+    private static long entrySize(UTXO utxo, Transaction.Output txOut) {
+        return Short.BYTES + utxo.getTxHash().length + Integer.BYTES
+                + Long.BYTES + 1 + Short.BYTES + txOut.handle.getEncoded().length;
+    }
+
+    /** @return 32 B odtlačok množiny */
+    public byte[] digest() {
+        ByteBuffer out = ByteBuffer.allocate(32);
+        for (long word : sum)
+            out.putLong(word);
+        return out.array();
+    }
+
+    /** @return počet UTXO */
+    public long count() {
+        return count;
+    }
+
+    /** @return súčet hodnôt všetkých UTXO */
+    public long totalValue() {
+        return totalValue;
+    }
+
+    /** @return veľkosť množiny v kódovaní WireFormat v bajtoch */
+    public long serializedSize() {
+        return serializedSize;
+    }
+
+    /** rovnaká množina UTXO (s pravdepodobnosťou kolízie SHA-256) */
+    public boolean equals(Object other) {
+        if (!(other instanceof UTXOCommitment))
+            return false;
+        UTXOCommitment c = (UTXOCommitment) other;
+        return Arrays.equals(sum, c.sum) && count == c.count && totalValue == c.totalValue
+                && serializedSize == c.serializedSize;
+    }
+
+    public int hashCode() {
+        return Long.hashCode(sum[0]);
+    }
+}
@@ -1,23 +1,141 @@
+import java.security.PublicKey;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UTXOPool {
 
     /**
      * Aktuálna zbierka UTXO, pričom každé z nich je mapované na zodpovedajúci
-     * výstup transakcie
+     * výstup transakcie. Predvolene perzistentná {@link UTXOTrie}, kópie poolu
+     * potom zdieľajú nezmenené uzly. Pri vrstve (pozri {@link #overlay()})
+     * obsahuje iba UTXO pridané vo vrstve.
      */
-    private HashMap<UTXO, Transaction.Output> H;
+    private UTXOStore H;
+
+    /** pool pod touto vrstvou, null pre samostatný pool */
+    private final UTXOPool parent;
+
+    /** UTXO rodiča odstránené vo vrstve, mapované na ich pôvodný výstup */
+    private UTXOTrie removed;
+
+    private int size;
+
+    /** odtlačok a štatistiky, null kým si ich nikto nevypýtal */
+    private UTXOCommitment commitment;
+
+    /**
+     * index adries, null ak je vypnutý. Vždy pokrýva celý pool, aj vo vrstve;
+     * kópie a vrstvy ho zdieľajú, pretože {@link AddressTrie} je nemenná.
+     */
+    private AddressTrie<AddressCoins> addressIndex;
+
+    /** nemenné UTXO jednej adresy a ich súčet */
+    private static final class AddressCoins {
+
+        final UTXOTrie coins;
+        final long balance;
+
+        AddressCoins(UTXOTrie coins, long balance) {
+            this.coins = coins;
+            this.balance = balance;
+        }
+
+        AddressCoins with(UTXO utxo, Transaction.Output txOut) {
+            return new AddressCoins(coins.with(utxo, txOut), Math.addExact(balance, txOut.value));
+        }
+
+        AddressCoins without(UTXO utxo, Transaction.Output txOut) {
+            return new AddressCoins(coins.without(utxo), Math.subtractExact(balance, txOut.value));
+        }
+    }
 
     /** Vytvorí nový prázdny UTXOPool */
     public UTXOPool() {
-        H = new HashMap<UTXO, Transaction.Output>();
+        this(new TrieUTXOStore());
+    }
+
+    /** Vytvorí nový UTXOPool nad úložiskom {@code store} a jeho obsahom */
+    public UTXOPool(UTXOStore store) {
+        this(null, store, UTXOTrie.EMPTY, store.size());
     }
 
-    /** Vytvorí nový UTXOPool, ktorý je kópiou {@code uPool} */
+    /**
+     * Vytvorí nový UTXOPool, ktorý je kópiou {@code uPool}. Pri predvolenom
+     * úložisku v čase O(1), pozri {@link UTXOStore#copy()}.
+     */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        this(uPool.parent, uPool.H.copy(), uPool.removed, uPool.size);
+        if (uPool.commitment != null)
+            commitment = uPool.commitment.copy();
+        addressIndex = uPool.addressIndex;
+    }
+
+    private UTXOPool(UTXOPool parent, UTXOStore H, UTXOTrie removed, int size) {
+        this.parent = parent;
+        this.H = H;
+        this.removed = removed;
+        this.size = size;
+    }
+
+    /**
+     * Vytvorí prázdnu vrstvu nad týmto poolom. Vrstva si pamätá iba svoje
+     * pridania a odstránenia, ostatné hľadanie prepadne do tohto poolu, takže
+     * zamietnutý blok alebo transakcia stojí iba vlastné zmeny. Tento pool sa
+     * počas života vrstvy nesmie meniť inak ako cez {@link #commit()}.
+     */
+    public UTXOPool overlay() {
+        UTXOPool layer = new UTXOPool(this, new TrieUTXOStore(), UTXOTrie.EMPTY, size);
+        if (commitment != null)
+            layer.commitment = commitment.copy();
+        layer.addressIndex = addressIndex;
+        return layer;
+    }
+
+    /** @return pool pod touto vrstvou alebo null, ak nejde o vrstvu */
+    public UTXOPool getParent() {
+        return parent;
+    }
+
+    /**
+     * Zapíše zmeny tejto vrstvy do rodiča a vyprázdni ju; vrstva ostáva použiteľná
+     * nad zmeneným rodičom.
+     *
+     * @throws IllegalStateException ak nejde o vrstvu
+     */
+    public void commit() {
+        if (parent == null)
+            throw new IllegalStateException("pool nie je vrstva");
+        removed.forEach((ut, txOut) -> parent.removeUTXO(ut));
+        H.forEach(parent::addUTXO);
+        H = new TrieUTXOStore();
+        removed = UTXOTrie.EMPTY;
+        size = parent.size();
+        // rodič si index aktualizoval sám na rovnaký obsah
+        if (addressIndex != null && parent.addressIndex != null)
+            addressIndex = parent.addressIndex;
+    }
+
+    /**
+     * @return samostatný pool s rovnakým obsahom ako táto vrstva. Rodičovská mapa
+     *         sa zdieľa, cena je úmerná iba zmenám vo vrstvách. Ak je na dne
+     *         samostatný pool nad úložiskom, ktorého kópia nie je O(1) (pozri
+     *         {@link UTXOStore#persistent()}), napr. {@link MappedUTXOStore},
+     *         výsledkom je jediná vrstva so všetkými zmenami priamo nad ním;
+     *         ten sa potom nesmie meniť, kým sa výsledok používa.
+     */
+    public UTXOPool flatten() {
+        if (parent == null || (parent.parent == null && !parent.H.persistent()))
+            return new UTXOPool(this);
+        UTXOPool flat = parent.flatten();
+        // index vrstvy už zmeny obsahuje, netreba ho pri nich udržiavať
+        flat.addressIndex = null;
+        removed.forEach((ut, txOut) -> flat.removeUTXO(ut));
+        H.forEach(flat::addUTXO);
+        flat.addressIndex = addressIndex;
+        return flat;
     }
 
     /**
@@ -25,12 +143,98 @@ public class UTXOPool {
      * v poole
      */
     public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        Transaction.Output previous = getTxOutput(utxo);
+        // index a odtlačok ako prvé: pri pretečení zostatku adresy alebo
+        // celkovej hodnoty sa pool nezmení
+        AddressTrie<AddressCoins> index = addressIndex;
+        if (index != null) {
+            if (previous != null)
+                index = withoutCoin(index, utxo, previous);
+            index = withCoin(index, utxo, txOut);
+        }
+        if (commitment != null) {
+            if (previous == null) {
+                commitment.add(utxo, txOut);
+            } else {
+                UTXOCommitment next = commitment.copy();
+                next.remove(utxo, previous);
+                next.add(utxo, txOut);
+                commitment = next;
+            }
+        }
+        if (previous == null)
+            size++;
         H.put(utxo, txOut);
+        addressIndex = index;
     }
 
     /** Odstráni UTXO {@code utxo} z poolu */
     public void removeUTXO(UTXO utxo) {
+        Transaction.Output previous = getTxOutput(utxo);
+        if (previous == null)
+            return;
+        size--;
+        if (commitment != null)
+            commitment.remove(utxo, previous);
+        if (addressIndex != null)
+            indexRemove(utxo, previous);
         H.remove(utxo);
+        if (parent != null) {
+            Transaction.Output shadowed = parent.getTxOutput(utxo);
+            if (shadowed != null)
+                removed = removed.with(utxo, shadowed);
+        }
+    }
+
+    /**
+     * Odstráni UTXO {@code spent} a pridá {@code created} naraz, bez hľadania
+     * predchádzajúcich výstupov; pre {@link UTXOShards}. Každé UTXO zo
+     * {@code spent} musí byť v poole s uvedeným výstupom a každé z
+     * {@code created}, ktoré už v poole je, musí byť aj v {@code spent}.
+     * Odtlačky {@code spentSum} a {@code createdSum} stačí zadať, ak má pool
+     * odtlačok, pozri {@link #hasCommitment()}. Vo vrstve sa minuté UTXO
+     * rodiča zaznamenajú ako odstránené.
+     */
+    void applyDelta(UTXOTrie spent, UTXOTrie created, UTXOCommitment spentSum, UTXOCommitment createdSum) {
+        spent.forEach((ut, txOut) -> {
+            H.remove(ut);
+            if (parent != null) {
+                Transaction.Output shadowed = parent.getTxOutput(ut);
+                if (shadowed != null)
+                    removed = removed.with(ut, shadowed);
+            }
+        });
+        created.forEach(H::put);
+        size += created.size() - spent.size();
+        if (commitment != null) {
+            commitment.remove(spentSum);
+            commitment.add(createdSum);
+        }
+        if (addressIndex != null) {
+            spent.forEach(this::indexRemove);
+            created.forEach(this::indexAdd);
+        }
+    }
+
+    /**
+     * @return true, ak {@link #getTxOutput} smie volať viac vlákien naraz, kým
+     *         sa pool nemení, pozri {@link UTXOStore#concurrentReads()}
+     */
+    boolean concurrentReads() {
+        return H.concurrentReads() && (parent == null || parent.concurrentReads());
+    }
+
+    /**
+     * @return true, ak kópia poolu cez {@link #snapshot()} stojí O(1) bez
+     *         ohľadu na jeho veľkosť, pozri {@link UTXOStore#persistent()}
+     */
+    boolean persistent() {
+        return H.persistent() && (parent == null || parent.persistent());
+    }
+
+    /** @return true, ak pool priebežne udržuje odtlačok */
+    boolean hasCommitment() {
+        return commitment != null;
     }
 
     /**
@@ -38,21 +242,185 @@ public class UTXOPool {
      *         {@code utxo} nie je v poole.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
-        return H.get(ut);
+        byte[] txHash = ut.getTxHash();
+        return getTxOutput(txHash, 0, txHash.length, ut.getIndex());
+    }
+
+    /**
+     * @return výstup transakcie s hashom {@code txHash} a indexom {@code index},
+     *         alebo null. Na rozdiel od {@link #getTxOutput(UTXO)} nevytvára UTXO.
+     */
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        return getTxOutput(txHash, 0, txHash.length, index);
+    }
+
+    /** @return výstup, ktorý míňa vstup {@code input}, alebo null */
+    Transaction.Output getTxOutput(Transaction.Input input) {
+        int length = input.prevTxHashLength();
+        if (length < 0)
+            return null;
+        return getTxOutput(input.data(), input.prevTxHashOffset(), length, input.getOutputIndex());
+    }
+
+    private Transaction.Output getTxOutput(byte[] buf, int offset, int length, int index) {
+        Transaction.Output txOut = H.get(buf, offset, length, index);
+        if (txOut != null || parent == null || removed.get(buf, offset, length, index) != null)
+            return txOut;
+        return parent.getTxOutput(buf, offset, length, index);
     }
 
     /** @return true ak UTXO {@code utxo} je v poole a inak false */
     public boolean contains(UTXO utxo) {
-        return H.containsKey(utxo);
+        return getTxOutput(utxo) != null;
+    }
+
+    /** @return true, ak je v poole výstup s indexom {@code index} transakcie {@code txHash} */
+    public boolean contains(byte[] txHash, int index) {
+        return getTxOutput(txHash, index) != null;
     }
 
     /** Vráti {@code ArrayList} všetkých UTXOs v poole */
     public ArrayList<UTXO> getAllUTXO() {
-        Set<UTXO> setUTXO = H.keySet();
-        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>();
-        for (UTXO ut : setUTXO) {
-            allUTXO.add(ut);
-        }
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(size);
+        forEach((ut, txOut) -> allUTXO.add(ut));
         return allUTXO;
     }
+
+    /**
+     * @return prúd všetkých UTXO v poole a ich výstupov bez kópie množiny.
+     *         {@code parallel()} delí prechod podľa úložiska. Pool sa počas
+     *         prechodu nesmie meniť, inak treba prechádzať {@link #snapshot()}.
+     */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> stream() {
+        Stream<Map.Entry<UTXO, Transaction.Output>> own = StreamSupport.stream(H.spliterator(), false);
+        if (parent == null)
+            return own;
+        Stream<Map.Entry<UTXO, Transaction.Output>> inherited = parent.stream()
+                .filter(e -> H.get(e.getKey()) == null && removed.get(e.getKey()) == null);
+        return Stream.concat(inherited, own);
+    }
+
+    /**
+     * @return UTXO z intervalu [{@code from}, {@code to}) podľa
+     *         {@link UTXO#compareTo}, zoradené. Úložiská nemajú index podľa
+     *         tohto poradia, takže sa prejde celý pool a čas je úmerný jeho
+     *         veľkosti; triedi sa iba výsledok a pamäť je úmerná jeho veľkosti.
+     */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> range(UTXO from, UTXO to) {
+        return stream()
+                .filter(e -> e.getKey().compareTo(from) >= 0 && e.getKey().compareTo(to) < 0)
+                .sorted(Map.Entry.comparingByKey());
+    }
+
+    /**
+     * @return nemenný pohľad na pool v čase volania, ktorý sa dá prechádzať
+     *         počas ďalších zmien tohto poolu. Pri predvolenom úložisku a pri
+     *         vrstve v čase O(1), samostatný pool nad iným úložiskom sa celý
+     *         skopíruje, pozri {@link UTXOStore#copy()}.
+     */
+    public UTXOPool snapshot() {
+        return new UTXOPool(this);
+    }
+
+    /** @return počet UTXO v poole */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return odtlačok množiny UTXO nezávislý od poradia spolu s počtom, celkovou
+     *         hodnotou a veľkosťou. Prvé volanie prejde celý pool, odvtedy ho
+     *         {@link #addUTXO} a {@link #removeUTXO} udržujú v O(1) a ďalšie
+     *         volania sú O(1).
+     */
+    public UTXOCommitment getCommitment() {
+        if (commitment == null) {
+            UTXOCommitment c = new UTXOCommitment();
+            forEach(c::add);
+            commitment = c;
+        }
+        return commitment.copy();
+    }
+
+    /**
+     * Zapne index adries, ktorý {@link #addUTXO} a {@link #removeUTXO} ďalej
+     * udržujú priebežne. Prvé zapnutie prejde celý pool. Kópie, vrstvy a
+     * {@link #flatten()} index zdedia.
+     */
+    public void indexAddresses() {
+        if (addressIndex != null)
+            return;
+        addressIndex = AddressTrie.empty();
+        forEach(this::indexAdd);
+    }
+
+    /** @return true, ak má pool zapnutý index adries */
+    public boolean isAddressIndexed() {
+        return addressIndex != null;
+    }
+
+    /**
+     * @return súčet hodnôt UTXO adresy {@code address}, v čase O(1)
+     * @throws IllegalStateException ak index adries nie je zapnutý
+     */
+    public long getBalance(PublicKey address) {
+        AddressCoins c = coins(address);
+        return c != null ? c.balance : 0;
+    }
+
+    /**
+     * @return UTXO adresy {@code address}, v čase O(k) pre k UTXO
+     * @throws IllegalStateException ak index adries nie je zapnutý
+     */
+    public ArrayList<UTXO> getCoins(PublicKey address) {
+        AddressCoins c = coins(address);
+        ArrayList<UTXO> coins = new ArrayList<>(c != null ? c.coins.size() : 0);
+        if (c != null)
+            c.coins.forEach((ut, txOut) -> coins.add(ut));
+        return coins;
+    }
+
+    // kľúč, ktorý nemá živú adresu, nemá ani UTXO; hľadanie register nemení
+    private AddressCoins coins(PublicKey address) {
+        if (addressIndex == null)
+            throw new IllegalStateException("index adries nie je zapnutý");
+        Address handle = Address.lookup(address);
+        return handle != null ? addressIndex.get(handle) : null;
+    }
+
+    private void indexAdd(UTXO utxo, Transaction.Output txOut) {
+        addressIndex = withCoin(addressIndex, utxo, txOut);
+    }
+
+    private void indexRemove(UTXO utxo, Transaction.Output txOut) {
+        addressIndex = withoutCoin(addressIndex, utxo, txOut);
+    }
+
+    /** @throws ArithmeticException ak zostatok adresy pretečie */
+    private static AddressTrie<AddressCoins> withCoin(AddressTrie<AddressCoins> index, UTXO utxo,
+            Transaction.Output txOut) {
+        AddressCoins c = index.get(txOut.handle);
+        return index.with(txOut.handle,
+                c != null ? c.with(utxo, txOut) : new AddressCoins(UTXOTrie.EMPTY.with(utxo, txOut), txOut.value));
+    }
+
+    private static AddressTrie<AddressCoins> withoutCoin(AddressTrie<AddressCoins> index, UTXO utxo,
+            Transaction.Output txOut) {
+        AddressCoins c = index.get(txOut.handle);
+        if (c == null)
+            return index;
+        c = c.without(utxo, txOut);
+        return c.coins.size() == 0 ? index.without(txOut.handle) : index.with(txOut.handle, c);
+    }
+
+    /** zavolá {@code action} pre každé UTXO v poole a jeho výstup */
+    void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        if (parent != null) {
+            parent.forEach((ut, txOut) -> {
+                if (H.get(ut) == null && removed.get(ut) == null)
+                    action.accept(ut, txOut);
+            });
+        }
+        H.forEach(action);
+    }
 }
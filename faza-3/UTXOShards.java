@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Paralelná aplikácia bloku na UTXO pool. Minutia a nové výstupy bloku sa
+ * podľa hashu UTXO rozdelia do {@code count} častí (shardov) v poradí, v akom
+ * sú v bloku, takže výstup a jeho minutie v tom istom bloku skončia v tej
+ * istej časti. Každú časť spracuje jedna úloha bez zámkov: overí minutia voči
+ * pôvodnému poolu, ktorý sa iba číta, a zostaví vlastné zmeny a ich odtlačok.
+ * Ak úložisko poolu nedovolí súbežné hľadanie, pozri
+ * {@link UTXOStore#concurrentReads()}, časti sa spracujú postupne v jednom vlákne.
+ * Po dobehnutí všetkých častí sa zmeny zapíšu do kópie poolu; ak niektorej
+ * časti chýba vstup, zahodia sa zmeny všetkých častí.
+ */
+final class UTXOShards {
+
+    private final int count;
+    private final Executor executor;
+
+    UTXOShards(int count, Executor executor) {
+        if (count < 1)
+            throw new IllegalArgumentException("počet častí musí byť kladný");
+        this.count = count;
+        this.executor = executor;
+    }
+
+    /** minutia a výstupy jednej časti a zmeny, ktoré z nich vzišli */
+    private static final class Shard {
+        // null výstup znamená minutie
+        final ArrayList<UTXO> utxos = new ArrayList<>();
+        final ArrayList<Transaction.Output> outputs = new ArrayList<>();
+
+        UTXOTrie spent = UTXOTrie.EMPTY;
+        UTXOTrie created = UTXOTrie.EMPTY;
+        UTXOCommitment spentSum;
+        UTXOCommitment createdSum;
+        UTXO missing;
+
+        void apply(UTXOPool base, boolean commitment) {
+            for (int i = 0; i < utxos.size(); i++) {
+                UTXO utxo = utxos.get(i);
+                Transaction.Output txOut = outputs.get(i);
+                // výstup vytvorený skôr v tejto časti: minutie ho zruší, nový ho nahradí
+                if (created.get(utxo) != null) {
+                    created = created.without(utxo);
+                } else if (spent.get(utxo) == null) {
+                    Transaction.Output previous = base.getTxOutput(utxo);
+                    if (previous != null)
+                        spent = spent.with(utxo, previous);
+                    else if (txOut == null) {
+                        missing = utxo;
+                        return;
+                    }
+                } else if (txOut == null) {
+                    missing = utxo;
+                    return;
+                }
+                if (txOut != null)
+                    created = created.with(utxo, txOut);
+            }
+            if (commitment) {
+                spentSum = new UTXOCommitment();
+                spent.forEach(spentSum::add);
+                createdSum = new UTXOCommitment();
+                created.forEach(createdSum::add);
+            }
+        }
+    }
+
+    /**
+     * @return nový samostatný pool, ktorý vznikne z {@code base} minutím vstupov
+     *         a pridaním výstupov transakcií bloku {@code block} a jeho coinbase,
+     *         alebo null, ak niektorý vstup nie je v {@code base} ani medzi
+     *         skoršími výstupmi bloku. {@code base} sa nemení a počas behu sa
+     *         nesmie meniť. Podpisy a hodnoty sa tu neoverujú.
+     */
+    UTXOPool apply(UTXOPool base, Block block) {
+        Shard[] shards = new Shard[count];
+        for (int s = 0; s < count; s++)
+            shards[s] = new Shard();
+        for (Transaction tx : block.getTransactions()) {
+            for (Transaction.Input input : tx.getInputs())
+                route(shards, input.getUTXO(), null);
+            route(shards, tx);
+        }
+        route(shards, block.getCoinbase());
+
+        boolean commitment = base.hasCommitment();
+        if (count == 1) {
+            shards[0].apply(base, commitment);
+        } else if (!base.concurrentReads()) {
+            // úložisko nedovolí súbežné hľadanie, časti idú postupne
+            for (Shard shard : shards)
+                shard.apply(base, commitment);
+        } else {
+            CompletableFuture<?>[] tasks = new CompletableFuture<?>[count];
+            for (int s = 0; s < count; s++) {
+                Shard shard = shards[s];
+                tasks[s] = CompletableFuture.runAsync(() -> shard.apply(base, commitment), executor);
+            }
+            CompletableFuture.allOf(tasks).join();
+        }
+        for (Shard shard : shards) {
+            if (shard.missing != null)
+                return null;
+        }
+
+        UTXOPool child = base.flatten();
+        for (Shard shard : shards)
+            child.applyDelta(shard.spent, shard.created, shard.spentSum, shard.createdSum);
+        return child;
+    }
+
+    private void route(Shard[] shards, Transaction tx) {
+        for (int i = 0; i < tx.numOutputs(); i++)
+            route(shards, new UTXO(tx.getHash(), i), tx.getOutput(i));
+    }
+
+    private void route(Shard[] shards, UTXO utxo, Transaction.Output txOut) {
+        Shard shard = shards[Math.floorMod(UTXOTrie.hash(utxo), count)];
+        shard.utxos.add(utxo);
+        shard.outputs.add(txOut);
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/**
+ * Binárny snímok UTXO poolu spolu s hashom bloku, ktorému zodpovedá. Nový uzol
+ * ho môže načítať namiesto prehrávania reťazca od Genesis bloku, pozri
+ * {@link BlockChain#fromSnapshot(Block, Path, UTXOPool)}.
+ *
+ * <pre>
+ * u32 magic | u8 verzia | bytes hash bloku | i64 počet UTXO | 32 B odtlačok UTXOCommitment
+ * bloky:   i32 počet UTXO | i32 dĺžka | UTXO... | u32 CRC32C bloku   (koniec: i32 0)
+ * UTXO:    u8 dĺžka hashu | hash transakcie | i32 index | i64 hodnota | i32 číslo adresy
+ * adresy:  i32 počet | (u8 schéma | i16 dĺžka | X.509)... | u32 CRC32C hlavičky a adries
+ * </pre>
+ *
+ * Každý blok má vlastný kontrolný súčet, takže sa bloky dajú overovať a
+ * rozoberať paralelne. Odtlačky blokov sa sčítajú a musia dať odtlačok z
+ * hlavičky, čím sa overí celý obsah snímky; až potom sa bloky postupne vložia
+ * do poolu.
+ */
+public final class UTXOSnapshot {
+
+    private static final int MAGIC = 0x55545853;
+    private static final byte VERSION = 2;
+    /** počet UTXO v jednom bloku snímky */
+    static final int CHUNK_ENTRIES = 4096;
+    /** najmenšia veľkosť UTXO v bloku snímky, s prázdnym hashom */
+    private static final int MIN_ENTRY_BYTES = 1 + 4 + 8 + 4;
+
+    private UTXOSnapshot() {
+    }
+
+    /** Zapíše {@code pool} a hash bloku {@code tipHash} do súboru {@code path}. */
+    public static void write(UTXOPool pool, byte[] tipHash, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(pool, tipHash, out);
+        }
+    }
+
+    public static void write(UTXOPool pool, byte[] tipHash, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        CRC32C headerCrc = new CRC32C();
+        byte[] commitment = pool.getCommitment().digest();
+        ByteBuffer header = ByteBuffer.allocate(4 + 1 + Short.BYTES + tipHash.length + Long.BYTES + commitment.length);
+        header.putInt(MAGIC).put(VERSION).putShort((short) tipHash.length).put(tipHash).putLong(pool.size())
+                .put(commitment);
+        out.write(header.array());
+        headerCrc.update(header.array());
+
+        HashMap<Address, Integer> addressIds = new HashMap<>();
+        ArrayList<Address> addresses = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_ENTRIES * (1 + UTXOTable.HASH_BYTES + 4 + 8 + 4));
+        int[] count = new int[1];
+        IOException[] failure = new IOException[1];
+        pool.forEach((ut, txOut) -> {
+            if (failure[0] != null)
+                return;
+            byte[] txHash = ut.getTxHash();
+            if (txHash.length > UTXOTable.HASH_BYTES)
+                throw new IllegalArgumentException("hash transakcie má viac ako " + UTXOTable.HASH_BYTES + " B");
+            Integer id = addressIds.get(txOut.handle);
+            if (id == null) {
+                id = addresses.size();
+                addressIds.put(txOut.handle, id);
+                addresses.add(txOut.handle);
+            }
+            chunk.put((byte) txHash.length).put(txHash).putInt(ut.getIndex()).putLong(txOut.value).putInt(id);
+            if (++count[0] == CHUNK_ENTRIES) {
+                try {
+                    writeChunk(out, chunk, count[0]);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                count[0] = 0;
+            }
+        });
+        if (failure[0] != null)
+            throw failure[0];
+        if (count[0] > 0)
+            writeChunk(out, chunk, count[0]);
+        out.writeInt(0);
+
+        ByteBuffer table = ByteBuffer.allocate(tableSize(addresses));
+        table.putInt(addresses.size());
+        for (Address address : addresses) {
+            byte[] encoded = address.getEncoded();
+            table.put(address.getScheme().id()).putShort((short) encoded.length).put(encoded);
+        }
+        out.write(table.array());
+        headerCrc.update(table.array());
+        out.writeInt((int) headerCrc.getValue());
+        out.flush();
+    }
+
+    private static int tableSize(ArrayList<Address> addresses) {
+        int size = Integer.BYTES;
+        for (Address address : addresses)
+            size += 1 + Short.BYTES + address.getEncoded().length;
+        return size;
+    }
+
+    private static void writeChunk(DataOutputStream out, ByteBuffer chunk, int count) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(chunk.array(), 0, chunk.position());
+        out.writeInt(count);
+        out.writeInt(chunk.position());
+        out.write(chunk.array(), 0, chunk.position());
+        out.writeInt((int) crc.getValue());
+        chunk.clear();
+    }
+
+    /** Ako {@link #load(Path, UTXOPool, Executor)} so spoločným ForkJoinPoolom. */
+    public static byte[] load(Path path, UTXOPool into) throws IOException {
+        return load(path, into, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Načíta snímok zo súboru {@code path} do {@code into}; bloky sa overujú a
+     * rozoberajú paralelne na {@code executor}.
+     *
+     * @return hash bloku, ktorému snímok zodpovedá
+     * @throws IOException ak súbor nie je snímok alebo nesedí kontrolný súčet
+     */
+    public static byte[] load(Path path, UTXOPool into, Executor executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return load(buffer, into, executor);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("poškodený snímok: " + path, e);
+        }
+    }
+
+    private static byte[] load(ByteBuffer buffer, UTXOPool into, Executor executor) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION)
+            throw new IOException("súbor nie je UTXO snímok verzie " + VERSION);
+        byte[] tipHash = new byte[length(buffer, buffer.getShort() & 0xffff)];
+        buffer.get(tipHash);
+        long expected = buffer.getLong();
+        byte[] commitment = new byte[32];
+        buffer.get(commitment);
+        int headerEnd = buffer.position();
+
+        // pozície blokov, bez čítania ich obsahu
+        ArrayList<int[]> chunks = new ArrayList<>();
+        long total = 0;
+        for (int count; (count = buffer.getInt()) != 0;) {
+            int length = length(buffer, buffer.getInt());
+            if (count < 0 || count > length / MIN_ENTRY_BYTES || length > buffer.remaining() - Integer.BYTES)
+                throw new IOException("poškodený blok snímky na pozícii " + buffer.position());
+            chunks.add(new int[] { count, buffer.position(), length });
+            buffer.position(buffer.position() + length + Integer.BYTES);
+            total += count;
+        }
+        if (total != expected)
+            throw new IOException("snímok má " + total + " UTXO namiesto " + expected);
+
+        int tableStart = buffer.position();
+        int addressCount = buffer.getInt();
+        if (addressCount < 0 || addressCount > buffer.remaining() / (1 + Short.BYTES))
+            throw new IOException("poškodená tabuľka adries snímky");
+        Address[] addresses = new Address[addressCount];
+        for (int i = 0; i < addresses.length; i++) {
+            SignatureScheme scheme = SignatureScheme.forId(buffer.get());
+            byte[] encoded = new byte[length(buffer, buffer.getShort() & 0xffff)];
+            buffer.get(encoded);
+            addresses[i] = Address.intern(scheme.decodeKey(encoded));
+        }
+        CRC32C headerCrc = new CRC32C();
+        headerCrc.update(buffer.duplicate().position(0).limit(headerEnd));
+        headerCrc.update(buffer.duplicate().position(tableStart).limit(buffer.position()));
+        if ((int) headerCrc.getValue() != buffer.getInt())
+            throw new IOException("nesedí kontrolný súčet hlavičky snímky");
+
+        ArrayList<CompletableFuture<Chunk>> parsed = new ArrayList<>(chunks.size());
+        for (int[] chunk : chunks) {
+            ByteBuffer view = buffer.duplicate();
+            parsed.add(CompletableFuture.supplyAsync(() -> parseChunk(view, chunk, addresses), executor));
+        }
+        // do poolu sa vkladá až po overení odtlačku celej snímky, poškodená
+        // snímka ho nechá nezmenený
+        UTXOCommitment loaded = new UTXOCommitment();
+        try {
+            for (CompletableFuture<Chunk> future : parsed)
+                loaded.add(future.join().commitment);
+        } catch (CompletionException e) {
+            // kontrolný súčet alebo obsah bloku, ktorý sa nedá rozobrať
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalStateException)
+                throw new IOException(cause.getMessage(), cause);
+            throw new IOException("poškodený blok snímky", cause);
+        } catch (ArithmeticException e) {
+            throw new IOException("celková hodnota snímky pretiekla", e);
+        }
+        if (!Arrays.equals(commitment, loaded.digest()))
+            throw new IOException("odtlačok UTXO nesedí s hlavičkou snímky");
+        for (CompletableFuture<Chunk> future : parsed) {
+            Chunk chunk = future.join();
+            for (int i = 0; i < chunk.utxos.length; i++)
+                into.addUTXO(chunk.utxos[i], chunk.outputs[i]);
+        }
+        return tipHash;
+    }
+
+    // dĺžka poľa v snímke, ktorá sa musí zmestiť do zvyšku súboru
+    private static int length(ByteBuffer buffer, int length) throws IOException {
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("dĺžka " + length + " na pozícii " + buffer.position() + " presahuje snímok");
+        return length;
+    }
+
+    private static final class Chunk {
+        final UTXO[] utxos;
+        final Transaction.Output[] outputs;
+        final UTXOCommitment commitment = new UTXOCommitment();
+
+        Chunk(int count) {
+            utxos = new UTXO[count];
+            outputs = new Transaction.Output[count];
+        }
+    }
+
+    private static Chunk parseChunk(ByteBuffer buffer, int[] chunk, Address[] addresses) {
+        int count = chunk[0];
+        int start = chunk[1];
+        int length = chunk[2];
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start).limit(start + length));
+        if ((int) crc.getValue() != buffer.getInt(start + length))
+            throw new IllegalStateException("nesedí kontrolný súčet bloku na pozícii " + start);
+
+        // čítanie nesmie prejsť za koniec bloku
+        buffer.limit(start + length).position(start);
+        Chunk parsed = new Chunk(count);
+        byte[] txHash = new byte[UTXOTable.HASH_BYTES];
+        for (int i = 0; i < count; i++) {
+            int hashLength = buffer.get() & 0xff;
+            if (hashLength > UTXOTable.HASH_BYTES)
+                throw new IllegalStateException("hash transakcie má " + hashLength + " B na pozícii " + buffer.position());
+            buffer.get(txHash, 0, hashLength);
+            int index = buffer.getInt();
+            long value = buffer.getLong();
+            int id = buffer.getInt();
+            if (id < 0 || id >= addresses.length)
+                throw new IllegalStateException("neznáma adresa " + id + " na pozícii " + buffer.position());
+            parsed.utxos[i] = new UTXO(txHash, 0, hashLength, index);
+            parsed.outputs[i] = new Transaction.Output(value, addresses[id]);
+            parsed.commitment.add(parsed.utxos[i], parsed.outputs[i]);
+        }
+        if (buffer.hasRemaining())
+            throw new IllegalStateException("blok na pozícii " + start + " má viac ako " + count + " UTXO");
+        return parsed;
+    }
+}
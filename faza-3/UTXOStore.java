@@ -0,0 +1,64 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+
+/**
+ * Úložisko nevyčerpaných výstupov, nad ktorým stojí {@link UTXOPool}. Hľadanie
+ * dostáva hash transakcie ako úsek poľa, aby sa pri ňom nemuselo vytvárať
+ * {@link UTXO}.
+ */
+public interface UTXOStore {
+
+    /**
+     * @return výstup pre UTXO s hashom {@code txHash[offset .. offset+length)} a
+     *         indexom {@code index}, alebo null
+     */
+    Transaction.Output get(byte[] txHash, int offset, int length, int index);
+
+    default Transaction.Output get(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        return get(txHash, 0, txHash.length, utxo.getIndex());
+    }
+
+    void put(UTXO utxo, Transaction.Output txOut);
+
+    void remove(UTXO utxo);
+
+    int size();
+
+    void forEach(BiConsumer<UTXO, Transaction.Output> action);
+
+    /**
+     * @return spliterator nad záznamami úložiska. Predvolene nad ich kópiou,
+     *         úložiská, ktoré vedia prechádzať bez kópie, ho prepisujú.
+     */
+    default Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        ArrayList<Map.Entry<UTXO, Transaction.Output>> entries = new ArrayList<>(size());
+        forEach((ut, txOut) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(ut, txOut)));
+        return entries.spliterator();
+    }
+
+    /**
+     * @return true, ak {@link #get} smie volať viac vlákien naraz, kým sa
+     *         úložisko nemení. Predvolene nie, napr. hľadanie v
+     *         {@link CachedUTXOStore} mení poradie záznamov v cache.
+     */
+    default boolean concurrentReads() {
+        return false;
+    }
+
+    /**
+     * @return true, ak {@link #copy()} stojí O(1), pretože kópia zdieľa
+     *         nemenné dáta s originálom. Predvolene nie, kópia je úmerná
+     *         veľkosti úložiska; {@link UTXOPool#flatten()} vtedy nad takým
+     *         úložiskom ponecháva vrstvy.
+     */
+    default boolean persistent() {
+        return false;
+    }
+
+    /** @return nezávislá kópia úložiska */
+    UTXOStore copy();
+}
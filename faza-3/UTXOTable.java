@@ -0,0 +1,232 @@
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * {@link UTXOStore} ako hashovacia tabuľka s otvoreným adresovaním (lineárne
+ * skúšanie). Kľúče ležia v primitívnych poliach: 64-bitový hash, index výstupu
+ * a hash transakcie v bloku po {@link #HASH_BYTES} bajtoch. Hľadanie podľa
+ * (hash, index) preto nič nealokuje a väčšinu nezhodných slotov odmietne už
+ * porovnanie 64-bitových hashov. Odstránenie posúva nasledujúce záznamy späť,
+ * takže tabuľka nemá náhrobky.
+ * <p>
+ * Kópia kopíruje celé polia; na lacné kópie slúži {@link UTXOPool#overlay()}.
+ */
+public class UTXOTable implements UTXOStore {
+
+    /** najväčšia dĺžka hashu transakcie, SHA-256 */
+    public static final int HASH_BYTES = 32;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    // 0 znamená prázdny slot, hash64 nulu nikdy nevráti
+    private long[] hashes;
+    private int[] indices;
+    private byte[] lengths;
+    private byte[] keys;
+    private Transaction.Output[] values;
+    private int size;
+
+    public UTXOTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /** tabuľka, ktorá pojme {@code expectedSize} UTXO bez zväčšovania */
+    public UTXOTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private UTXOTable(UTXOTable other) {
+        hashes = other.hashes.clone();
+        indices = other.indices.clone();
+        lengths = other.lengths.clone();
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        indices = new int[capacity];
+        lengths = new byte[capacity];
+        keys = new byte[capacity * HASH_BYTES];
+        values = new Transaction.Output[capacity];
+    }
+
+    /** @return 64-bitový hash UTXO, nikdy 0 */
+    static long hash64(byte[] txHash, int offset, int length, int index) {
+        long h = 0xcbf29ce484222325L ^ index;
+        for (int i = offset; i < offset + length; i++)
+            h = (h ^ (txHash[i] & 0xff)) * 0x100000001b3L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    private int home(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (hashes.length - 1);
+    }
+
+    // slot s daným kľúčom, alebo -(prázdny slot, kam by patril) - 1
+    private int find(long hash, byte[] txHash, int offset, int length, int index) {
+        int mask = hashes.length - 1;
+        for (int slot = home(hash);; slot = (slot + 1) & mask) {
+            long h = hashes[slot];
+            if (h == 0)
+                return -slot - 1;
+            if (h == hash && indices[slot] == index && lengths[slot] == length
+                    && Arrays.equals(keys, slot * HASH_BYTES, slot * HASH_BYTES + length, txHash, offset, offset + length))
+                return slot;
+        }
+    }
+
+    public Transaction.Output get(byte[] txHash, int offset, int length, int index) {
+        if (length > HASH_BYTES)
+            return null;
+        int slot = find(hash64(txHash, offset, length, index), txHash, offset, length, index);
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    /** @throws IllegalArgumentException ak je hash transakcie dlhší ako {@link #HASH_BYTES} */
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length > HASH_BYTES)
+            throw new IllegalArgumentException("hash transakcie má viac ako " + HASH_BYTES + " B");
+        long hash = hash64(txHash, 0, txHash.length, utxo.getIndex());
+        int slot = find(hash, txHash, 0, txHash.length, utxo.getIndex());
+        if (slot >= 0) {
+            values[slot] = txOut;
+            return;
+        }
+        if (size + 1 > hashes.length * LOAD_FACTOR) {
+            grow();
+            slot = find(hash, txHash, 0, txHash.length, utxo.getIndex());
+        }
+        insert(-slot - 1, hash, txHash, 0, txHash.length, utxo.getIndex(), txOut);
+        size++;
+    }
+
+    private void insert(int slot, long hash, byte[] txHash, int offset, int length, int index,
+            Transaction.Output txOut) {
+        hashes[slot] = hash;
+        indices[slot] = index;
+        lengths[slot] = (byte) length;
+        System.arraycopy(txHash, offset, keys, slot * HASH_BYTES, length);
+        values[slot] = txOut;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        int[] oldIndices = indices;
+        byte[] oldLengths = lengths;
+        byte[] oldKeys = keys;
+        Transaction.Output[] oldValues = values;
+        allocate(oldHashes.length * 2);
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] == 0)
+                continue;
+            int slot = home(oldHashes[i]);
+            while (hashes[slot] != 0)
+                slot = (slot + 1) & mask;
+            insert(slot, oldHashes[i], oldKeys, i * HASH_BYTES, oldLengths[i], oldIndices[i], oldValues[i]);
+        }
+    }
+
+    public void remove(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length > HASH_BYTES)
+            return;
+        int slot = find(hash64(txHash, 0, txHash.length, utxo.getIndex()), txHash, 0, txHash.length, utxo.getIndex());
+        if (slot < 0)
+            return;
+        size--;
+        // posun späť: záznam za dierou sa presunie do nej, ak by ho inak
+        // hľadanie z jeho domovského slotu nenašlo
+        int mask = hashes.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; hashes[next] != 0; next = (next + 1) & mask) {
+            int home = home(hashes[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                insert(hole, hashes[next], keys, next * HASH_BYTES, lengths[next], indices[next], values[next]);
+                hole = next;
+            }
+        }
+        hashes[hole] = 0;
+        values[hole] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != 0)
+                action.accept(new UTXO(keys, i * HASH_BYTES, lengths[i], indices[i]), values[i]);
+        }
+    }
+
+    /**
+     * @return spliterator nad slotmi tabuľky, bez kópie; tabuľka sa počas prechodu
+     *         nesmie meniť
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        return new SlotSpliterator(0, hashes.length);
+    }
+
+    private final class SlotSpliterator implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        private int slot;
+        private final int end;
+
+        SlotSpliterator(int slot, int end) {
+            this.slot = slot;
+            this.end = end;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            for (; slot < end; slot++) {
+                if (hashes[slot] != 0) {
+                    int i = slot++;
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>(
+                            new UTXO(keys, i * HASH_BYTES, lengths[i], indices[i]), values[i]));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            int mid = (slot + end) >>> 1;
+            if (end - slot < 1024)
+                return null;
+            SlotSpliterator prefix = new SlotSpliterator(slot, mid);
+            slot = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return (long) (end - slot) * size / hashes.length;
+        }
+
+        public int characteristics() {
+            return DISTINCT | NONNULL;
+        }
+    }
+
+    public boolean concurrentReads() {
+        return true;
+    }
+
+    public UTXOStore copy() {
+        return new UTXOTable(this);
+    }
+}
@@ -0,0 +1,361 @@
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Nemenná (perzistentná) mapa UTXO na výstup transakcie, implementovaná ako hash
+ * array mapped trie. Zmena vracia novú mapu, ktorá so starou zdieľa všetky
+ * nezmenené uzly, takže kópia je O(1) a zmena kopíruje iba O(log n) uzlov na
+ * ceste od koreňa.
+ */
+final class UTXOTrie {
+
+    static final UTXOTrie EMPTY = new UTXOTrie(null, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private UTXOTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Transaction.Output get(UTXO key) {
+        byte[] txHash = key.getTxHash();
+        return get(txHash, 0, txHash.length, key.getIndex());
+    }
+
+    /** hľadanie bez vytvárania UTXO, hash je {@code buf[offset .. offset+length)} */
+    Transaction.Output get(byte[] buf, int offset, int length, int index) {
+        if (root == null)
+            return null;
+        return root.find(0, mix(UTXO.hashCode(buf, offset, length, index)), buf, offset, length, index);
+    }
+
+    /** @return mapa, v ktorej je {@code key} namapované na {@code value} */
+    UTXOTrie with(UTXO key, Transaction.Output value) {
+        boolean[] added = new boolean[1];
+        Node node = root != null ? root : BitmapNode.EMPTY;
+        Node newRoot = node.with(0, hash(key), key, value, added);
+        if (newRoot == root)
+            return this;
+        return new UTXOTrie(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** @return mapa bez {@code key} */
+    UTXOTrie without(UTXO key) {
+        if (root == null)
+            return this;
+        Node newRoot = root.without(0, hash(key), key);
+        if (newRoot == root)
+            return this;
+        return new UTXOTrie(newRoot, size - 1);
+    }
+
+    void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        if (root != null)
+            root.forEach(action);
+    }
+
+    /**
+     * @return spliterator nad záznamami bez kópie; mapa je nemenná, takže prechod
+     *         vidí stav z času volania bez ohľadu na ďalšie zmeny
+     */
+    Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator() {
+        Object[] array = root != null ? root.array() : new Object[0];
+        return new EntrySpliterator(array, 0, array.length, size, true);
+    }
+
+    /**
+     * Prechádza podstromy do hĺbky so zásobníkom polí uzlov. Delí sa rozsah dvojíc
+     * na najvyššej úrovni; ak ostane jediný podstrom, rozsahom sa stanú jeho dvojice.
+     */
+    private static final class EntrySpliterator implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        // 7 úrovní BitmapNode a kolízny uzol
+        private static final int MAX_DEPTH = 9;
+
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] pos = new int[MAX_DEPTH];
+        private final int[] end = new int[MAX_DEPTH];
+        private int depth;
+        private long estimate;
+        private boolean exact;
+
+        EntrySpliterator(Object[] array, int lo, int hi, long estimate, boolean exact) {
+            arrays[0] = array;
+            pos[0] = lo;
+            end[0] = hi;
+            this.estimate = estimate;
+            this.exact = exact;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            while (depth >= 0) {
+                if (pos[depth] >= end[depth]) {
+                    depth--;
+                    continue;
+                }
+                Object[] array = arrays[depth];
+                int i = pos[depth];
+                pos[depth] += 2;
+                if (array[i] == null) {
+                    Object[] child = ((Node) array[i + 1]).array();
+                    depth++;
+                    arrays[depth] = child;
+                    pos[depth] = 0;
+                    end[depth] = child.length;
+                    continue;
+                }
+                action.accept(new AbstractMap.SimpleImmutableEntry<>((UTXO) array[i], (Transaction.Output) array[i + 1]));
+                return true;
+            }
+            return false;
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            if (depth != 0)
+                return null;
+            int pairs = (end[0] - pos[0]) / 2;
+            if (pairs == 1 && arrays[0][pos[0]] == null) {
+                Object[] child = ((Node) arrays[0][pos[0] + 1]).array();
+                arrays[0] = child;
+                pos[0] = 0;
+                end[0] = child.length;
+                pairs = child.length / 2;
+            }
+            if (pairs < 2)
+                return null;
+            int mid = pos[0] + (pairs / 2) * 2;
+            EntrySpliterator prefix = new EntrySpliterator(arrays[0], pos[0], mid, estimate >>> 1, false);
+            pos[0] = mid;
+            estimate -= estimate >>> 1;
+            exact = false;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return estimate;
+        }
+
+        public int characteristics() {
+            return DISTINCT | NONNULL | IMMUTABLE | (exact ? SIZED : 0);
+        }
+    }
+
+    // UTXO.hashCode má slabšie spodné bity, trie ich používa ako prvé
+    static int hash(UTXO key) {
+        return mix(key.hashCode());
+    }
+
+    private static int mix(int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private interface Node {
+        Transaction.Output find(int shift, int hash, byte[] buf, int offset, int length, int index);
+
+        Node with(int shift, int hash, UTXO key, Transaction.Output value, boolean[] added);
+
+        /** @return uzol bez {@code key}, null ak ostal prázdny */
+        Node without(int shift, int hash, UTXO key);
+
+        void forEach(BiConsumer<UTXO, Transaction.Output> action);
+
+        /** @return dvojice (kľúč, výstup) alebo (null, podstrom) */
+        Object[] array();
+    }
+
+    /**
+     * Uzol s až 32 vetvami. {@code array} má pre každý nastavený bit dvojicu
+     * (kľúč, výstup) alebo (null, podstrom).
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        public Transaction.Output find(int shift, int hash, byte[] buf, int offset, int length, int index) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return null;
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null)
+                return ((Node) v).find(shift + BITS, hash, buf, offset, length, index);
+            return ((UTXO) k).equals(buf, offset, length, index) ? (Transaction.Output) v : null;
+        }
+
+        public Node with(int shift, int hash, UTXO key, Transaction.Output value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, 2 * i);
+                newArray[2 * i] = key;
+                newArray[2 * i + 1] = value;
+                System.arraycopy(array, 2 * i, newArray, 2 * i + 2, array.length - 2 * i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).with(shift + BITS, hash, key, value, added);
+                return child == v ? this : replace(2 * i + 1, child);
+            }
+            if (key.equals(k))
+                return v == value ? this : replace(2 * i + 1, value);
+            added[0] = true;
+            Node child = split(shift + BITS, (UTXO) k, (Transaction.Output) v, hash, key, value);
+            Object[] newArray = array.clone();
+            newArray[2 * i] = null;
+            newArray[2 * i + 1] = child;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        public Node without(int shift, int hash, UTXO key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).without(shift + BITS, hash, key);
+                if (child == v)
+                    return this;
+                if (child != null)
+                    return replace(2 * i + 1, child);
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            if (bitmap == bit)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * i);
+            System.arraycopy(array, 2 * i + 2, newArray, 2 * i, newArray.length - 2 * i);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null)
+                    ((Node) array[i + 1]).forEach(action);
+                else
+                    action.accept((UTXO) array[i], (Transaction.Output) array[i + 1]);
+            }
+        }
+
+        public Object[] array() {
+            return array;
+        }
+
+        private BitmapNode replace(int i, Object value) {
+            Object[] newArray = array.clone();
+            newArray[i] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private static Node split(int shift, UTXO k1, Transaction.Output v1, int h2, UTXO k2,
+                Transaction.Output v2) {
+            int h1 = hash(k1);
+            if (h1 == h2)
+                return new CollisionNode(h1, new Object[] { k1, v1, k2, v2 });
+            boolean[] added = new boolean[1];
+            return EMPTY.with(shift, h1, k1, v1, added).with(shift, h2, k2, v2, added);
+        }
+    }
+
+    /** Uzol pre kľúče s úplne rovnakým hashom, prehľadáva sa lineárne. */
+    private static final class CollisionNode implements Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(UTXO key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        public Transaction.Output find(int shift, int hash, byte[] buf, int offset, int length, int index) {
+            if (hash != this.hash)
+                return null;
+            for (int i = 0; i < array.length; i += 2) {
+                if (((UTXO) array[i]).equals(buf, offset, length, index))
+                    return (Transaction.Output) array[i + 1];
+            }
+            return null;
+        }
+
+        public Node with(int shift, int hash, UTXO key, Transaction.Output value, boolean[] added) {
+            if (hash != this.hash) {
+                // iný hash: kolízny uzol sa presunie o úroveň nižšie
+                BitmapNode parent = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] { null, this });
+                return parent.with(shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value)
+                    return this;
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        public Node without(int shift, int hash, UTXO key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0)
+                return this;
+            if (array.length == 2)
+                return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+            return new CollisionNode(hash, newArray);
+        }
+
+        public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+            for (int i = 0; i < array.length; i += 2)
+                action.accept((UTXO) array[i], (Transaction.Output) array[i + 1]);
+        }
+
+        public Object[] array() {
+            return array;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Zdieľaný pohľad na UTXO pool pre súbežných čitateľov (peňaženka, RPC) a
+ * jedného zapisovateľa, ktorý aplikuje bloky. Čitateľ si cez {@link #current()}
+ * vezme očíslovanú verziu a číta ju bez zámkov; verzia sa už nikdy nezmení, aj
+ * keď zapisovateľ medzitým zverejní ďalšie. Zapisovateľ pripraví zmeny vo
+ * vrstve nad poslednou verziou a zverejní ich naraz, takže čitateľ nikdy
+ * neuvidí polovicu bloku.
+ * <p>
+ * Verzie zdieľajú nezmenené uzly {@link UTXOTrie}, zverejnenie novej verzie
+ * preto stojí iba zmeny bloku. Samostatný pool nad iným úložiskom ako
+ * predvoleným sa celý skopíruje raz, pri vytvorení pohľadu, pozri
+ * {@link UTXOPool#snapshot()}; ďalšie verzie sú vrstvy nad touto kópiou, pozri
+ * {@link UTXOPool#flatten()}.
+ */
+public final class UTXOView {
+
+    /** nemenná verzia UTXO poolu */
+    public static final class Version {
+        private final long number;
+        private final UTXOPool pool;
+
+        private Version(long number, UTXOPool pool) {
+            this.number = number;
+            this.pool = pool;
+        }
+
+        /** @return číslo verzie, každé zverejnenie ho zvýši o 1 */
+        public long number() {
+            return number;
+        }
+
+        public Transaction.Output getTxOutput(UTXO utxo) {
+            return pool.getTxOutput(utxo);
+        }
+
+        public Transaction.Output getTxOutput(byte[] txHash, int index) {
+            return pool.getTxOutput(txHash, index);
+        }
+
+        public boolean contains(UTXO utxo) {
+            return pool.contains(utxo);
+        }
+
+        public int size() {
+            return pool.size();
+        }
+
+        public Stream<Map.Entry<UTXO, Transaction.Output>> stream() {
+            return pool.stream();
+        }
+
+        /** @return odtlačok a štatistiky verzie, v čase O(1) */
+        public UTXOCommitment getCommitment() {
+            return pool.getCommitment();
+        }
+
+        /** @return súkromná kópia verzie, ktorú si čitateľ môže meniť */
+        public UTXOPool toPool() {
+            return pool.snapshot();
+        }
+    }
+
+    private volatile Version current;
+    private final Object writer = new Object();
+
+    /**
+     * Vytvorí pohľad s verziou 0, ktorou je kópia {@code pool}. Odtlačok poolu sa
+     * spočíta hneď, aby ho čitatelia nepočítali súbežne. Pool, ktorý odtlačok
+     * už má, napr. pool bloku v {@link BlockChain}, ho odovzdá v O(1); inak sa
+     * pri každom zverejnení prechádza celý pool.
+     */
+    public UTXOView(UTXOPool pool) {
+        current = version(0, pool);
+    }
+
+    private static Version version(long number, UTXOPool pool) {
+        UTXOPool published = pool.snapshot();
+        published.getCommitment();
+        return new Version(number, published);
+    }
+
+    /** @return posledná zverejnená verzia; bez zámkov */
+    public Version current() {
+        return current;
+    }
+
+    /**
+     * Aplikuje {@code changes} na vrstvu nad poslednou verziou a výsledok
+     * zverejní ako novú verziu. Ak {@code changes} vyhodí výnimku, nezverejní sa
+     * nič. Zapisovatelia sa navzájom vylučujú, čitateľov neblokujú.
+     *
+     * @return zverejnená verzia
+     */
+    public Version apply(Consumer<UTXOPool> changes) {
+        synchronized (writer) {
+            UTXOPool layer = current.pool.overlay();
+            changes.accept(layer);
+            Version next = new Version(current.number + 1, layer.flatten());
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * Odstráni UTXO minuté transakciami bloku {@code block} a pridá ich výstupy
+     * a výstupy coinbase, všetko ako jednu verziu. Podpisy a hodnoty sa tu
+     * neoverujú.
+     *
+     * @return zverejnená verzia, alebo null, ak niektorý vstup nie je v poslednej
+     *         verzii; vtedy sa nezverejní nič
+     */
+    public Version apply(Block block) {
+        synchronized (writer) {
+            UTXOPool layer = current.pool.overlay();
+            for (Transaction tx : block.getTransactions()) {
+                for (Transaction.Input input : tx.getInputs()) {
+                    if (layer.getTxOutput(input) == null)
+                        return null;
+                    layer.removeUTXO(input.getUTXO());
+                }
+                addOutputs(layer, tx);
+            }
+            addOutputs(layer, block.getCoinbase());
+            Version next = new Version(current.number + 1, layer.flatten());
+            current = next;
+            return next;
+        }
+    }
+
+    private static void addOutputs(UTXOPool layer, Transaction tx) {
+        for (int i = 0; i < tx.numOutputs(); i++)
+            layer.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+    }
+
+    /**
+     * Zverejní kópiu {@code pool} ako novú verziu, napr. pool nového najvyššieho
+     * bloku.
+     *
+     * @return zverejnená verzia
+     */
+    public Version publish(UTXOPool pool) {
+        synchronized (writer) {
+            Version next = version(current.number + 1, pool);
+            current = next;
+            return next;
+        }
+    }
+}
@@ -1,6 +1,1475 @@
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.EdECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class UnitTest {
 
+    private static KeyPair keyPair() throws NoSuchAlgorithmException {
+        return KeyPairGenerator.getInstance("RSA").generateKeyPair();
+    }
+
+    @Test
+    public void compactInputsKeepValues() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Transaction tx = new Transaction();
+        tx.addInput(new byte[] { 1, 2, 3 }, 7);
+        tx.addInput(new byte[] { 4, 5 }, 8);
+        tx.addSignature(new byte[] { 9 }, 1);
+        tx.addSignature(new byte[] { 10, 11 }, 1);
+        tx.addOutput(5, a.getPublic());
+        tx.removeInput(0);
+
+        assertEquals(1, tx.numInputs());
+        assertEquals(8, tx.getInput(0).getOutputIndex());
+        assertEquals(2, tx.getInput(0).getPrevTxHash().length);
+        assertEquals(11, tx.getInput(0).getSignature()[1]);
+        assertEquals(5L, tx.getOutput(0).value);
+        assertTrue(tx.getOutput(0).equals(new Transaction.Output(5, a.getPublic())));
+        try {
+            tx.addSignature(new byte[] { 1 }, 1);
+            fail("podpis vstupu mimo rozsahu");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        assertNull(tx.getInput(1));
+        assertNull(tx.getInput(-1));
+        assertNull(tx.getOutput(1));
+        assertNull(tx.getOutput(-4));
+
+        // nahradené podpisy a odstránené vstupy nezostávajú v pamäti
+        for (int i = 0; i < 1000; i++) {
+            tx.addInput(new byte[32], i);
+            tx.addSignature(new byte[64 + i % 7], tx.numInputs() - 1);
+            tx.addSignature(new byte[64 + i % 5], tx.numInputs() - 1);
+            tx.removeInput(0);
+            assertTrue(tx.getInput(0).data().length <= 4 * (32 + 64 + 6));
+        }
+        assertEquals(999, tx.getInput(0).getOutputIndex());
+        assertEquals(64 + 999 % 5, tx.getInput(0).getSignature().length);
+        // kratší podpis prepíše starý na mieste, kópia a trimToSize zvyšok upracú
+        tx.addSignature(new byte[60], 0);
+        tx.setHash(new byte[32]);
+        Transaction copy = new Transaction(tx);
+        tx.trimToSize();
+        assertEquals(32 + 60, tx.getInput(0).data().length);
+        assertEquals(32 + 60, copy.getInput(0).data().length);
+        assertTrue(copy.getInput(0).equals(tx.getInput(0)));
+    }
+
+    // kódovanie je rovnaké ako pri pôvodnom skladaní cez ArrayList<Byte>: očakávané
+    // bajty sú poskladané ručne podľa formátu, hashe sú zapísané natvrdo
+    @Test
+    public void rawEncodingMatchesGoldenBytes() throws GeneralSecurityException {
+        BigInteger modulus = BigInteger.ONE.shiftLeft(511).add(BigInteger.valueOf(0x1234567));
+        PublicKey key = KeyFactory.getInstance("RSA")
+                .generatePublic(new RSAPublicKeySpec(modulus, BigInteger.valueOf(65537)));
+        byte[] prevTx = new byte[32];
+        for (int i = 0; i < prevTx.length; i++)
+            prevTx[i] = (byte) i;
+        byte[] prevBlock = new byte[32];
+        Arrays.fill(prevBlock, (byte) 0xAB);
+        byte[] sig = { 1, 2, 3, 4, 5 };
+
+        Transaction tx = new Transaction();
+        tx.addInput(prevTx, 7);
+        tx.addInput(prevTx, 0x01020304);
+        tx.addOutput(3 * Transaction.COIN, key);
+        tx.addOutput(1, key);
+        tx.addSignature(sig, 0);
+        tx.finalize();
+        Block block = new Block(prevBlock, key);
+        block.transactionAdd(tx);
+        block.finalize();
+
+        // výstup: hodnota, exponent a modul kľúča v tvare BigInteger.toByteArray()
+        byte[] exponent = { 1, 0, 1 };
+        byte[] modulusBytes = new byte[65];
+        modulusBytes[1] = (byte) 0x80;
+        modulusBytes[61] = 0x01;
+        modulusBytes[62] = 0x23;
+        modulusBytes[63] = 0x45;
+        modulusBytes[64] = 0x67;
+        assertArrayEquals(modulus.toByteArray(), modulusBytes);
+        byte[] outputs = ByteBuffer.allocate(2 * (Long.BYTES + exponent.length + modulusBytes.length))
+                .putLong(3 * Transaction.COIN).put(exponent).put(modulusBytes)
+                .putLong(1).put(exponent).put(modulusBytes)
+                .array();
+        // druhý vstup je bez podpisu, takže za jeho indexom nie je nič
+        byte[] rawTx = ByteBuffer.allocate(2 * (prevTx.length + Integer.BYTES) + sig.length + outputs.length)
+                .put(prevTx).putInt(7).put(sig)
+                .put(prevTx).putInt(0x01020304)
+                .put(outputs)
+                .array();
+        byte[] toSign = ByteBuffer.allocate(prevTx.length + Integer.BYTES + outputs.length)
+                .put(prevTx).putInt(0x01020304).put(outputs)
+                .array();
+        byte[] rawBlock = ByteBuffer.allocate(prevBlock.length + rawTx.length).put(prevBlock).put(rawTx).array();
+
+        assertArrayEquals(rawTx, tx.getRawTx());
+        assertEquals(rawTx.length, tx.rawTxSize());
+        assertArrayEquals(toSign, tx.getRawDataToSign(1));
+        assertArrayEquals(rawBlock, block.getRawBlock());
+        assertEquals(rawBlock.length, block.rawBlockSize());
+        assertEquals("92f93909a8d45b5c515c931e69824dfe6f9260f98b18f8adc970e409462a4587",
+                HexFormat.of().formatHex(tx.getHash()));
+        assertEquals("db870f8ab5af783399f8ad1b722228cc7695b7b5e346fa23ca1a58ff3f9fc1cb",
+                HexFormat.of().formatHex(block.getHash()));
+    }
+
+    @Test
+    public void blockHashFollowsItsTransactions() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Transaction tx = new Transaction();
+        tx.addInput(new byte[32], 0);
+        tx.addOutput(5, a.getPublic());
+        tx.finalize();
+        Block block = new Block(new byte[32], a.getPublic());
+        block.transactionAdd(tx);
+        block.finalize();
+        byte[] hash = block.getHash();
+        block.finalize();
+        assertSame(hash, block.getHash());
+
+        // zmena transakcie v bloku aj zoznamu mimo transactionAdd zmení hash bloku
+        tx.addSignature(new byte[] { 1 }, 0);
+        block.finalize();
+        assertFalse(Arrays.equals(hash, block.getHash()));
+        hash = block.getHash();
+        block.getTransactions().remove(0);
+        block.finalize();
+        assertFalse(Arrays.equals(hash, block.getHash()));
+        block.getTransactions().add(tx);
+        block.finalize();
+        assertArrayEquals(hash, block.getHash());
+    }
+
+    // typická transakcia v mempoole: 2 vstupy s 32 B hashom a 256 B podpisom,
+    // 2 výstupy; pôvodne mala objekt a dve polia na vstup, objekt na výstup a
+    // dva ArrayList, teraz iba niekoľko polí
+    @Test
+    public void packedTransactionFootprint() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Transaction tx = new Transaction();
+        for (int i = 0; i < 2; i++) {
+            tx.addInput(new byte[32], i);
+            tx.addSignature(new byte[256], i);
+            tx.addOutput(i + 1, a.getPublic());
+        }
+        tx.finalize();
+
+        int ref = Transaction.REFERENCE_BYTES;
+        // vnútorné triedy Input a Output mali aj odkaz na transakciu
+        long input = Transaction.objectBytes(3 * ref + Integer.BYTES)
+                + Transaction.arrayBytes(32, 1) + Transaction.arrayBytes(256, 1);
+        long output = Transaction.objectBytes(Long.BYTES + 3 * ref);
+        long list = Transaction.objectBytes(2 * Integer.BYTES + ref) + Transaction.arrayBytes(10, ref);
+        long objects = Transaction.objectBytes(4 * ref + 2) + Transaction.arrayBytes(32, 1)
+                + 2 * list + 2 * input + 2 * output;
+        long packed = tx.heapBytes();
+        // samotné dáta: hash, hashe a podpisy vstupov, hodnoty výstupov
+        long payload = 32 + 2 * (32 + 256) + 2 * Long.BYTES;
+        assertTrue("zabalená " + packed + " B, objekty " + objects + " B",
+                2 * (packed - payload) <= objects - payload);
+    }
+
+    private static byte[] sign(KeyPair key, byte[] message) throws Exception {
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initSign(key.getPrivate());
+        sig.update(message);
+        return sig.sign();
+    }
+
+    @Test
+    public void verifierReportsResultInsteadOfException() throws Exception {
+        KeyPair a = keyPair();
+        KeyPair b = keyPair();
+        byte[] message = { 1, 2, 3 };
+        byte[] signature = sign(a, message);
+        byte[] signatureB = sign(b, message);
+
+        for (int cacheSize : new int[] { 0, 1, 64 }) {
+            Crypto.setVerifierCacheSize(cacheSize);
+            // opakovane, aby sa použil aj overovač z cache; pri veľkosti 1 sa
+            // kľúče striedajú a vytlačený overovač sa použije pre druhý kľúč
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Crypto.VerifyResult.VALID, Crypto.verify(a.getPublic(), message, signature));
+                assertEquals(Crypto.VerifyResult.VALID, Crypto.verify(b.getPublic(), message, signatureB));
+                assertEquals(Crypto.VerifyResult.INVALID, Crypto.verify(a.getPublic(), new byte[] { 1 }, signature));
+                assertEquals(Crypto.VerifyResult.MALFORMED_SIGNATURE, Crypto.verify(a.getPublic(), message, new byte[] { 1 }));
+                assertEquals(Crypto.VerifyResult.MISSING, Crypto.verify(a.getPublic(), message, null));
+            }
+        }
+        Crypto.setVerifierCacheSize(64);
+    }
+
+    @Test
+    public void batchVerifiesWholeEpoch() throws Exception {
+        KeyPair a = keyPair();
+        KeyPair b = keyPair();
+        Transaction root = new Transaction(10 * Transaction.COIN, a.getPublic());
+        UTXOPool pool = new UTXOPool();
+        pool.addUTXO(new UTXO(root.getHash(), 0), root.getOutput(0));
+
+        Transaction tx1 = new Transaction();
+        tx1.addInput(root.getHash(), 0);
+        tx1.addOutput(10 * Transaction.COIN, b.getPublic());
+        tx1.addSignature(sign(a, tx1.getRawDataToSign(0)), 0);
+        tx1.finalize();
+
+        // tx2 míňa výstup tx1 z tej istej epochy
+        Transaction tx2 = new Transaction();
+        tx2.addInput(tx1.getHash(), 0);
+        tx2.addOutput(9 * Transaction.COIN, a.getPublic());
+        tx2.addSignature(sign(b, tx2.getRawDataToSign(0)), 0);
+        tx2.finalize();
+
+        // podpísaná nesprávnym kľúčom
+        Transaction forged = new Transaction();
+        forged.addInput(tx1.getHash(), 0);
+        forged.addOutput(Transaction.COIN, a.getPublic());
+        forged.addSignature(sign(a, forged.getRawDataToSign(0)), 0);
+        forged.finalize();
+
+        HandleTxs handler = new HandleTxs(pool);
+        boolean[][] signatures = handler.verifySignatures(new Transaction[] { tx1, tx2, forged });
+        assertTrue(signatures[0][0]);
+        assertTrue(signatures[1][0]);
+        assertFalse(signatures[2][0]);
+        assertEquals(2, handler.txHandler(new Transaction[] { tx1, forged, tx2 }).length);
+
+        // decoy má hash tx1, takže dávka overí podpis thief voči výstupu decoy;
+        // thief však míňa výstup tx1, ktorý patrí b
+        Transaction decoy = new Transaction();
+        decoy.addInput(tx1.getHash(), 1);
+        decoy.addOutput(10 * Transaction.COIN, a.getPublic());
+        decoy.setHash(tx1.getHash());
+        Transaction thief = new Transaction();
+        thief.addInput(tx1.getHash(), 0);
+        thief.addOutput(10 * Transaction.COIN, a.getPublic());
+        thief.addSignature(sign(a, thief.getRawDataToSign(0)), 0);
+        thief.finalize();
+        Transaction[] accepted = new HandleTxs(pool).txHandler(new Transaction[] { tx1, decoy, thief });
+        assertEquals(1, accepted.length);
+        assertSame(tx1, accepted[0]);
+
+        ArrayList<Crypto.SignatureCheck> checks = new ArrayList<>();
+        for (int i = 0; i < 16; i++)
+            checks.add(new Crypto.SignatureCheck(a.getPublic(), tx1.getRawDataToSign(0), tx1.getInput(0).getSignature()));
+        assertTrue(Crypto.verifyAll(checks));
+        checks.add(new Crypto.SignatureCheck(b.getPublic(), tx1.getRawDataToSign(0), tx1.getInput(0).getSignature()));
+        assertFalse(Crypto.verifyAll(checks));
+    }
+
+    @Test
+    public void signatureCacheSkipsSecondVerification() throws Exception {
+        KeyPair a = keyPair();
+        Transaction root = new Transaction(10 * Transaction.COIN, a.getPublic());
+        UTXOPool pool = new UTXOPool();
+        pool.addUTXO(new UTXO(root.getHash(), 0), root.getOutput(0));
+
+        Transaction tx = new Transaction();
+        tx.addInput(root.getHash(), 0);
+        tx.addOutput(10 * Transaction.COIN, a.getPublic());
+        tx.addSignature(sign(a, tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+
+        SignatureCache cache = new SignatureCache(2);
+        assertTrue(new HandleTxs(pool, cache).txIsValid(tx));
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.size());
+        assertEquals(1, new HandleTxs(pool, cache).txHandler(new Transaction[] { tx }).length);
+        assertEquals(1, cache.hits());
+
+        // podpis zmenený bez finalize() má ten istý hash, ale cache ho nepozná
+        Transaction forged = new Transaction();
+        forged.addInput(root.getHash(), 0);
+        forged.addOutput(10 * Transaction.COIN, a.getPublic());
+        forged.addSignature(new byte[tx.getInput(0).getSignature().length], 0);
+        forged.setHash(tx.getHash());
+        assertEquals(ValidationResult.Reason.INVALID_SIGNATURE, new HandleTxs(pool, cache).validate(forged).getReason());
+
+        Address handle = root.getOutput(0).handle;
+        for (int i = 0; i < 5; i++)
+            cache.add(new byte[] { (byte) i }, new byte[] { (byte) i }, handle);
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(new byte[] { 4 }, new byte[] { 4 }, handle));
+        assertFalse(cache.contains(new byte[] { 0 }, new byte[] { 0 }, handle));
+        // zásah posunie záznam dopredu, vytlačí sa najdlhšie nepoužitý
+        assertTrue(cache.contains(new byte[] { 3 }, new byte[] { 3 }, handle));
+        cache.add(new byte[] { 5 }, new byte[] { 5 }, handle);
+        assertTrue(cache.contains(new byte[] { 3 }, new byte[] { 3 }, handle));
+        assertFalse(cache.contains(new byte[] { 4 }, new byte[] { 4 }, handle));
+    }
+
+    // všetky schémy podpisu na ceste HandleTxs.txIsValid, časy v Benchmark
+    @Test
+    public void signatureSchemesOnValidationPath() throws GeneralSecurityException {
+        int count = 200;
+        for (SignatureScheme scheme : new SignatureScheme[] { SignatureScheme.RSA, SignatureScheme.ED25519,
+                SignatureScheme.ECDSA }) {
+            KeyPair key = scheme.generateKeyPair();
+            Transaction funding = new Transaction();
+            for (int i = 0; i < count; i++)
+                funding.addOutput(Transaction.COIN, key.getPublic());
+            funding.finalize();
+            UTXOPool pool = new UTXOPool();
+            for (int i = 0; i < count; i++)
+                pool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+
+            Transaction[] txs = new Transaction[count];
+            for (int i = 0; i < count; i++) {
+                txs[i] = new Transaction();
+                txs[i].addInput(funding.getHash(), i);
+                txs[i].addOutput(Transaction.COIN, key.getPublic());
+                txs[i].addSignature(scheme.sign(key.getPrivate(), txs[i].getRawDataToSign(0)), 0);
+                txs[i].finalize();
+            }
+
+            HandleTxs handler = new HandleTxs(pool);
+            for (Transaction tx : txs)
+                assertTrue(scheme.name(), handler.txIsValid(tx));
+            assertSame(scheme, SignatureScheme.forKey(key.getPublic()));
+
+            Transaction decoded = new TransactionView().wrap(ByteBuffer.wrap(WireFormat.encode(txs[0])), 0)
+                    .toTransaction();
+            assertTrue(Arrays.equals(txs[0].getHash(), decoded.getHash()));
+        }
+
+        // ECDSA je iba na P-256, kľúč na inej krivke nemá schému
+        KeyPairGenerator p384 = KeyPairGenerator.getInstance("EC");
+        p384.initialize(new ECGenParameterSpec("secp384r1"));
+        PublicKey other = p384.generateKeyPair().getPublic();
+        assertFalse(SignatureScheme.ECDSA.accepts(other));
+        try {
+            SignatureScheme.forKey(other);
+            fail("kľúč na krivke P-384 dostal schému");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(Crypto.VerifyResult.INVALID_KEY, Crypto.verify(other, new byte[] { 1 }, new byte[] { 1 }));
+    }
+
+    @Test
+    public void wireFormatRoundTripAndMalformedInput() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        KeyPair b = SignatureScheme.ED25519.generateKeyPair();
+        Transaction tx = new Transaction();
+        tx.addInput(new byte[] { 1, 2, 3 }, 4);
+        tx.addInput(new byte[32], 0);
+        tx.addSignature(new byte[] { 9, 8 }, 0);
+        tx.addOutput(5, a.getPublic());
+        tx.addOutput(7, b.getPublic());
+        tx.finalize();
+        byte[] bytes = WireFormat.encode(tx);
+
+        TransactionView view = new TransactionView().wrap(ByteBuffer.wrap(bytes), 0);
+        assertEquals(bytes.length, view.size());
+        assertFalse(view.isCoinbase());
+        assertEquals(2, view.numInputs());
+        assertEquals(4, view.outputIndex(0));
+        assertTrue(view.prevTxHashEquals(0, new byte[] { 1, 2, 3 }));
+        assertArrayEquals(new byte[] { 9, 8 }, view.getSignature(0));
+        assertNull(view.getSignature(1));
+        assertEquals(2, view.numOutputs());
+        assertEquals(7L, view.value(1));
+        assertSame(SignatureScheme.ED25519, view.scheme(1));
+        assertTrue(view.addressEquals(1, SignatureScheme.ED25519.encodeKey(b.getPublic())));
+        assertTrue(tx.equals(view.toTransaction()));
+        assertArrayEquals(tx.getHash(), view.toTransaction().getHash());
+
+        Block block = new Block(new byte[] { 5 }, a.getPublic());
+        block.transactionAdd(tx);
+        block.finalize();
+        byte[] blockBytes = WireFormat.encode(block);
+        BlockView blockView = new BlockView().wrap(ByteBuffer.wrap(blockBytes), 0);
+        assertEquals(blockBytes.length, blockView.size());
+        assertEquals(1, blockView.numTransactions());
+        assertArrayEquals(tx.getHash(), blockView.getTransaction(0, view).getHash());
+        assertTrue(blockView.getCoinbase(view).isCoinbase());
+        assertArrayEquals(block.getHash(), blockView.toBlock().getHash());
+
+        // každé skrátenie je chyba formátu, nie výnimka z buffra
+        for (int length = 0; length < bytes.length; length++)
+            assertMalformed(Arrays.copyOf(bytes, length));
+        for (int length = 0; length < blockBytes.length; length++) {
+            try {
+                new BlockView().wrap(ByteBuffer.wrap(Arrays.copyOf(blockBytes, length)), 0);
+                fail("skrátený blok sa prečítal: " + length + " B");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+
+        // dĺžka poľa menšia ako -1 (null)
+        byte[] negative = bytes.clone();
+        ByteBuffer.wrap(negative).putShort(2, (short) -2);
+        assertMalformed(negative);
+        // počet vstupov, ktorý by sa do buffra nevošiel, sa odmietne pred alokáciou
+        byte[] huge = bytes.clone();
+        ByteBuffer.wrap(huge).putInt(2 + Short.BYTES + tx.getHash().length, Integer.MAX_VALUE);
+        assertMalformed(huge);
+
+        // transakcia v rámci: nesmie ho presiahnuť ani nevyplniť
+        byte[] padded = Arrays.copyOf(bytes, bytes.length + 1);
+        assertEquals(bytes.length, new TransactionView().wrap(ByteBuffer.wrap(padded), 0, bytes.length).size());
+        for (int length : new int[] { bytes.length - 1, bytes.length + 1, bytes.length + 2, -1 }) {
+            try {
+                new TransactionView().wrap(ByteBuffer.wrap(padded), 0, length);
+                fail("transakcia v rámci " + length + " B");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        // rámec transakcie v bloku o bajt dlhší, za ktorým nasleduje ešte bajt
+        int frame = blockBytes.length - bytes.length - Integer.BYTES;
+        byte[] longFrame = Arrays.copyOf(blockBytes, blockBytes.length + 1);
+        ByteBuffer.wrap(longFrame).putInt(frame, bytes.length + 1);
+        BlockView longView = new BlockView().wrap(ByteBuffer.wrap(longFrame), 0);
+        try {
+            longView.getTransaction(0, view);
+            fail("transakcia nevyplnila rámec");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void viewRejectsIndexesOfPreviousTransaction() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Transaction large = new Transaction();
+        for (int i = 0; i < 3; i++) {
+            large.addInput(new byte[32], i);
+            large.addOutput(i, a.getPublic());
+        }
+        large.finalize();
+        Transaction small = new Transaction();
+        small.addInput(new byte[32], 7);
+        small.addOutput(1, a.getPublic());
+        small.finalize();
+
+        // pohľad si nechá väčšie polia pozícií z predošlej transakcie
+        TransactionView view = new TransactionView();
+        view.wrap(ByteBuffer.wrap(WireFormat.encode(large)), 0);
+        view.wrap(ByteBuffer.wrap(WireFormat.encode(small)), 0);
+        assertEquals(7, view.outputIndex(0));
+        for (int index : new int[] { -1, 1, 2 }) {
+            assertOutOfRange(() -> view.outputIndex(index));
+            assertOutOfRange(() -> view.prevTxHashLength(index));
+            assertOutOfRange(() -> view.getPrevTxHash(index));
+            assertOutOfRange(() -> view.getSignature(index));
+            assertOutOfRange(() -> view.value(index));
+            assertOutOfRange(() -> view.addressLength(index));
+            assertOutOfRange(() -> view.scheme(index));
+            assertOutOfRange(() -> view.getAddress(index));
+        }
+
+        Block block = new Block(new byte[] { 5 }, a.getPublic());
+        block.transactionAdd(small);
+        block.finalize();
+        BlockView blockView = new BlockView().wrap(ByteBuffer.wrap(WireFormat.encode(block)), 0);
+        assertOutOfRange(() -> blockView.getTransaction(1, view));
+        assertOutOfRange(() -> blockView.getTransaction(-1, view));
+    }
+
+    private static void assertOutOfRange(Runnable access) {
+        try {
+            access.run();
+            fail("index mimo rozsahu");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            new TransactionView().wrap(ByteBuffer.wrap(bytes), 0);
+            fail("poškodená transakcia sa prečítala: " + bytes.length + " B");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // schéma mimo vopred zaregistrovaných, počíta svoje dávky
+    private static final AtomicInteger ED448_BATCHES = new AtomicInteger();
+    private static final SignatureScheme ED448 = new JcaSignatureScheme((byte) 42, "Ed448", "Ed448", "Ed448",
+            key -> key instanceof EdECPublicKey && "Ed448".equals(((EdECPublicKey) key).getParams().getName())) {
+        public Crypto.VerifyResult[] verifyBatch(List<Crypto.SignatureCheck> checks) {
+            ED448_BATCHES.incrementAndGet();
+            return super.verifyBatch(checks);
+        }
+    };
+
+    @Test
+    public void registeredSchemeVerifiesItsOwnSignatures() throws Exception {
+        SignatureScheme.register(ED448);
+        SignatureScheme.register(ED448);
+        assertSame(ED448, SignatureScheme.forId((byte) 42));
+        try {
+            SignatureScheme.register(new JcaSignatureScheme((byte) 1, "RSA2", "SHA256withRSA", "RSA", key -> false));
+            fail("dve schémy s rovnakým identifikátorom");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SignatureScheme.forId((byte) 99);
+            fail("neznámy identifikátor schémy");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        KeyPair key = ED448.generateKeyPair();
+        KeyPair rsa = keyPair();
+        assertSame(ED448, SignatureScheme.forKey(key.getPublic()));
+        assertSame(SignatureScheme.RSA, SignatureScheme.forKey(rsa.getPublic()));
+        Transaction funding = new Transaction();
+        for (int i = 0; i < 4; i++)
+            funding.addOutput(Transaction.COIN, key.getPublic());
+        funding.addOutput(Transaction.COIN, rsa.getPublic());
+        funding.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < funding.numOutputs(); i++)
+            pool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+
+        Transaction[] txs = new Transaction[funding.numOutputs()];
+        for (int i = 0; i < txs.length; i++) {
+            txs[i] = new Transaction();
+            txs[i].addInput(funding.getHash(), i);
+            txs[i].addOutput(Transaction.COIN, key.getPublic());
+            KeyPair owner = i < 4 ? key : rsa;
+            SignatureScheme scheme = SignatureScheme.forKey(owner.getPublic());
+            txs[i].addSignature(scheme.sign(owner.getPrivate(), txs[i].getRawDataToSign(0)), 0);
+            txs[i].finalize();
+        }
+        int batches = ED448_BATCHES.get();
+        assertEquals(txs.length, new HandleTxs(pool).txHandler(txs).length);
+        assertEquals(batches + 1, ED448_BATCHES.get());
+        assertEquals(Crypto.VerifyResult.VALID, Crypto.verify(key.getPublic(), txs[0].getRawDataToSign(0),
+                txs[0].getInput(0).getSignature()));
+
+        TransactionView view = new TransactionView().wrap(ByteBuffer.wrap(WireFormat.encode(txs[0])), 0);
+        assertSame(ED448, view.scheme(0));
+        assertArrayEquals(txs[0].getHash(), view.toTransaction().getHash());
+    }
+
+    @Test
+    public void persistentPoolCopiesAreIndependent() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Random random = new Random(12);
+        UTXOPool pool = new UTXOPool();
+        HashMap<UTXO, Transaction.Output> reference = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            // krátke hashe, aby vznikali aj kolízie hashCode
+            UTXO utxo = new UTXO(new byte[] { (byte) random.nextInt(64) }, random.nextInt(400));
+            if (random.nextInt(3) == 0) {
+                pool.removeUTXO(utxo);
+                reference.remove(utxo);
+            } else {
+                Transaction.Output txOut = new Transaction.Output(i, a.getPublic());
+                pool.addUTXO(utxo, txOut);
+                reference.put(utxo, txOut);
+            }
+        }
+        assertEquals(reference.size(), pool.size());
+        assertEquals(reference.keySet(), new HashSet<>(pool.getAllUTXO()));
+        for (UTXO utxo : reference.keySet())
+            assertTrue(pool.getTxOutput(utxo) == reference.get(utxo));
+
+        UTXOPool copy = new UTXOPool(pool);
+        UTXO spent = pool.getAllUTXO().get(0);
+        copy.removeUTXO(spent);
+        copy.addUTXO(new UTXO(new byte[] { 1, 2 }, 0), new Transaction.Output(1, a.getPublic()));
+        assertTrue(pool.contains(spent));
+        assertFalse(copy.contains(spent));
+        assertFalse(pool.contains(new UTXO(new byte[] { 1, 2 }, 0)));
+        assertEquals(reference.size(), pool.size());
+        assertEquals(reference.size(), copy.size());
+    }
+
+    @Test
+    public void overlayRecordsOnlyItsDelta() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        UTXOPool base = new UTXOPool();
+        for (int i = 0; i < 10; i++)
+            base.addUTXO(new UTXO(new byte[] { 7 }, i), new Transaction.Output(i, a.getPublic()));
+
+        UTXOPool layer = base.overlay();
+        layer.removeUTXO(new UTXO(new byte[] { 7 }, 0));
+        layer.removeUTXO(new UTXO(new byte[] { 8 }, 0));
+        layer.addUTXO(new UTXO(new byte[] { 9 }, 0), new Transaction.Output(100, a.getPublic()));
+        UTXOPool nested = layer.overlay();
+        nested.removeUTXO(new UTXO(new byte[] { 9 }, 0));
+        nested.addUTXO(new UTXO(new byte[] { 7 }, 0), new Transaction.Output(200, a.getPublic()));
+
+        assertEquals(10, base.size());
+        assertTrue(base.contains(new UTXO(new byte[] { 7 }, 0)));
+        assertEquals(10, layer.size());
+        assertFalse(layer.contains(new UTXO(new byte[] { 7 }, 0)));
+        assertEquals(10, layer.getAllUTXO().size());
+        assertEquals(10, nested.size());
+        assertEquals(200L, nested.getTxOutput(new UTXO(new byte[] { 7 }, 0)).value);
+        assertFalse(nested.contains(new UTXO(new byte[] { 9 }, 0)));
+
+        UTXOPool flat = nested.flatten();
+        assertTrue(flat.getParent() == null);
+        assertEquals(new HashSet<>(nested.getAllUTXO()), new HashSet<>(flat.getAllUTXO()));
+
+        layer.commit();
+        assertEquals(10, base.size());
+        assertEquals(100L, base.getTxOutput(new UTXO(new byte[] { 9 }, 0)).value);
+        assertFalse(base.contains(new UTXO(new byte[] { 7 }, 0)));
+        assertEquals(10, layer.size());
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    public void tableLookupsDoNotAllocate() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Transaction.Output txOut = new Transaction.Output(1, a.getPublic());
+        Random random = new Random(14);
+        int count = 100_000;
+        byte[][] hashes = new byte[count][32];
+        UTXOTable table = new UTXOTable();
+        HashMap<UTXO, Transaction.Output> reference = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(hashes[i]);
+            table.put(new UTXO(hashes[i], i & 3), txOut);
+            reference.put(new UTXO(hashes[i], i & 3), txOut);
+        }
+        for (int i = 0; i < count; i += 3) {
+            table.remove(new UTXO(hashes[i], i & 3));
+            reference.remove(new UTXO(hashes[i], i & 3));
+        }
+        assertEquals(reference.size(), table.size());
+        HashSet<UTXO> keys = new HashSet<>();
+        table.forEach((ut, out) -> keys.add(ut));
+        assertEquals(reference.keySet(), keys);
+        UTXOPool pool = new UTXOPool(table);
+        for (int i = 0; i < count; i++)
+            assertEquals(i % 3 != 0, pool.contains(hashes[i], i & 3));
+
+        // prvé kolá zahrejú JIT, až potom sa hľadanie obíde bez alokácie
+        long allocated = 0;
+        for (int round = 0; round < 5; round++) {
+            int found = 0;
+            allocated = allocatedBytes();
+            for (int i = 0; i < count; i++) {
+                if (pool.getTxOutput(hashes[i], i & 3) != null)
+                    found++;
+            }
+            allocated = allocatedBytes() - allocated;
+            assertEquals(reference.size(), found);
+        }
+        assertTrue("alokované " + allocated + " B", allocated < count);
+    }
+
+    @Test
+    public void mappedStoreSurvivesReopen() throws Exception {
+        KeyPair a = keyPair();
+        KeyPair b = SignatureScheme.ED25519.generateKeyPair();
+        Path dir = Files.createTempDirectory("utxo");
+        Path file = dir.resolve("utxo.db");
+        int count = 5_000;
+        HashMap<UTXO, Transaction.Output> reference = new HashMap<>();
+        try (MappedUTXOStore store = MappedUTXOStore.open(file)) {
+            UTXOPool pool = new UTXOPool(store);
+            for (int i = 0; i < count; i++) {
+                UTXO utxo = new UTXO(new byte[] { (byte) i, (byte) (i >>> 8), 3 }, i % 5);
+                Transaction.Output txOut = new Transaction.Output(i * Transaction.COIN, (i & 1) == 0 ? a.getPublic() : b.getPublic());
+                pool.addUTXO(utxo, txOut);
+                reference.put(utxo, txOut);
+            }
+            for (int i = 0; i < count; i += 4) {
+                UTXO utxo = new UTXO(new byte[] { (byte) i, (byte) (i >>> 8), 3 }, i % 5);
+                pool.removeUTXO(utxo);
+                reference.remove(utxo);
+            }
+        }
+
+        try (MappedUTXOStore store = MappedUTXOStore.open(file)) {
+            assertEquals(2, store.addressCount());
+            UTXOPool pool = new UTXOPool(store);
+            assertEquals(reference.size(), pool.size());
+            assertEquals(reference.keySet(), new HashSet<>(pool.getAllUTXO()));
+            for (UTXO utxo : reference.keySet())
+                assertTrue(reference.get(utxo).equals(pool.getTxOutput(utxo)));
+            assertEquals(reference.size(), pool.stream().parallel()
+                    .filter(e -> reference.get(e.getKey()).equals(e.getValue())).count());
+            // známa adresa sa nepridá znova
+            pool.addUTXO(new UTXO(new byte[] { 9 }, 0), new Transaction.Output(1, b.getPublic()));
+            assertEquals(2, store.addressCount());
+        }
+
+        // súbor adries bez záznamov, na ktoré úložisko odkazuje
+        Path addresses = dir.resolve("utxo.db.addr");
+        Files.write(addresses, Arrays.copyOf(Files.readAllBytes(addresses), 10));
+        try {
+            MappedUTXOStore.open(file).close();
+            fail("otvorilo sa úložisko bez adries");
+        } catch (java.io.IOException expected) {
+        }
+
+        // prázdny súbor je nové úložisko, príliš krátky nie je úložisko
+        Files.write(file, new byte[0]);
+        try (MappedUTXOStore store = MappedUTXOStore.open(file)) {
+            assertEquals(0, store.size());
+        }
+        Files.write(file, new byte[10]);
+        try {
+            MappedUTXOStore.open(file).close();
+            fail("otvorilo sa poškodené úložisko");
+        } catch (java.io.IOException expected) {
+        }
+        Files.delete(file);
+        Files.delete(dir.resolve("utxo.db.addr"));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void cacheWritesBackOnlySurvivors() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        UTXOTable backend = new UTXOTable();
+        CachedUTXOStore cache = new CachedUTXOStore(backend, 10_000, 0);
+        UTXOPool pool = new UTXOPool(cache);
+        for (int i = 0; i < 1000; i++)
+            pool.addUTXO(new UTXO(new byte[] { (byte) i, (byte) (i >>> 8) }, 0), new Transaction.Output(i, a.getPublic()));
+        for (int i = 100; i < 1000; i++)
+            pool.removeUTXO(new UTXO(new byte[] { (byte) i, (byte) (i >>> 8) }, 0));
+        assertEquals(0, backend.size());
+        cache.flush();
+        assertEquals(100, backend.size());
+        assertEquals(100, cache.written());
+        assertEquals(900, cache.neverWritten());
+
+        // malý rozpočet: zápisy a vyhadzovanie počas práce
+        Random random = new Random(16);
+        CachedUTXOStore small = new CachedUTXOStore(backend, 64, 0);
+        HashMap<UTXO, Transaction.Output> reference = new HashMap<>();
+        backend.forEach(reference::put);
+        UTXOPool smallPool = new UTXOPool(small);
+        for (int i = 0; i < 20_000; i++) {
+            UTXO utxo = new UTXO(new byte[] { (byte) random.nextInt(50), 1 }, random.nextInt(20));
+            if (random.nextBoolean()) {
+                smallPool.removeUTXO(utxo);
+                reference.remove(utxo);
+            } else {
+                Transaction.Output txOut = new Transaction.Output(i, a.getPublic());
+                smallPool.addUTXO(utxo, txOut);
+                reference.put(utxo, txOut);
+            }
+            assertTrue(small.cachedEntries() <= 65);
+        }
+        assertEquals(reference.size(), smallPool.size());
+        assertEquals(reference.keySet(), new HashSet<>(smallPool.getAllUTXO()));
+        small.flush();
+        HashMap<UTXO, Transaction.Output> stored = new HashMap<>();
+        backend.forEach(stored::put);
+        assertEquals(reference, stored);
+        assertTrue(small.flushes() > 1);
+
+        // nový výstup: addUTXO sa pýta úložiska raz, hľadanie v cache nealokuje
+        int[] probes = new int[1];
+        UTXOTable counting = new UTXOTable() {
+            public Transaction.Output get(byte[] txHash, int offset, int length, int index) {
+                probes[0]++;
+                return super.get(txHash, offset, length, index);
+            }
+        };
+        UTXOPool countingPool = new UTXOPool(new CachedUTXOStore(counting, 10_000, 0));
+        byte[][] hashes = new byte[1000][];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = new byte[] { (byte) i, (byte) (i >>> 8), 7 };
+            countingPool.addUTXO(new UTXO(hashes[i], 0), new Transaction.Output(i, a.getPublic()));
+        }
+        assertEquals(hashes.length, probes[0]);
+        long allocated = 0;
+        for (int round = 0; round < 3; round++) {
+            allocated = allocatedBytes();
+            for (byte[] txHash : hashes)
+                assertTrue(countingPool.contains(txHash, 0));
+            allocated = allocatedBytes() - allocated;
+        }
+        assertTrue("alokované " + allocated + " B", allocated < hashes.length);
+        assertEquals(hashes.length, probes[0]);
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception {
+        KeyPair a = keyPair();
+        KeyPair b = SignatureScheme.ECDSA.generateKeyPair();
+        Random random = new Random(17);
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < 3 * UTXOSnapshot.CHUNK_ENTRIES + 5; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            pool.addUTXO(new UTXO(txHash, i % 3),
+                    new Transaction.Output(random.nextInt(1000), random.nextBoolean() ? a.getPublic() : b.getPublic()));
+        }
+        Block tip = new Block(new byte[] { 1 }, a.getPublic());
+        tip.finalize();
+        Path file = Files.createTempFile("utxo", ".snapshot");
+        UTXOSnapshot.write(pool, tip.getHash(), file);
+
+        UTXOPool loaded = new UTXOPool(new UTXOTable());
+        assertTrue(Arrays.equals(tip.getHash(), UTXOSnapshot.load(file, loaded)));
+        assertEquals(pool.size(), loaded.size());
+        for (UTXO utxo : pool.getAllUTXO())
+            assertTrue(pool.getTxOutput(utxo).equals(loaded.getTxOutput(utxo)));
+        assertEquals(pool.getCommitment(), loaded.getCommitment());
+        BlockChain chain = BlockChain.fromSnapshot(tip, file, new UTXOPool());
+        assertEquals(pool.size(), chain.getMaxHeightUTXOPool().size());
+        // blok nad koreňom zo snímky sa dá pridať
+        Block next = new Block(tip.getHash(), a.getPublic());
+        next.finalize();
+        assertTrue(chain.blockAdd(next));
+        assertEquals(pool.size() + 1, chain.getMaxHeightUTXOPool().size());
+        // pool, ktorý sa nedá kopírovať v O(1), sa nekopíruje: bloky sú vrstvy nad ním
+        UTXOPool root = new UTXOPool(new UTXOTable());
+        BlockChain layered = BlockChain.fromSnapshot(tip, file, root);
+        Block second = new Block(next.getHash(), b.getPublic());
+        second.finalize();
+        assertTrue(layered.blockAdd(next));
+        assertTrue(layered.blockAdd(second));
+        UTXOPool top = layered.getMaxHeightUTXOPool();
+        assertEquals(pool.size() + 2, top.size());
+        assertSame(root, top.getParent());
+        assertEquals(pool.size(), root.size());
+        assertTrue(top.contains(new UTXO(second.getCoinbase().getHash(), 0)));
+        try {
+            BlockChain.fromSnapshot(next, file, new UTXOPool());
+            fail("snímka sa priradila inému bloku");
+        } catch (java.io.IOException expected) {
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        // záporná dĺžka hashu bloku v hlavičke
+        byte[] badLength = bytes.clone();
+        badLength[5] = (byte) 0x80;
+        Files.write(file, badLength);
+        try {
+            UTXOSnapshot.load(file, new UTXOPool());
+            fail("snímok s poškodenou dĺžkou sa načítal");
+        } catch (java.io.IOException expected) {
+        }
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        UTXOPool target = new UTXOPool();
+        try {
+            UTXOSnapshot.load(file, target);
+            fail("poškodený snímok sa načítal");
+        } catch (java.io.IOException expected) {
+            assertEquals(0, target.size());
+            assertNotNull(expected.getMessage());
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void commitmentIgnoresOrder() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        UTXOPool forward = new UTXOPool();
+        UTXOPool backward = new UTXOPool(new UTXOTable());
+        forward.getCommitment();
+        backward.getCommitment();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            forward.addUTXO(new UTXO(new byte[] { (byte) i, 1 }, i), new Transaction.Output(i, a.getPublic()));
+            int j = count - 1 - i;
+            backward.addUTXO(new UTXO(new byte[] { (byte) j, 1 }, j), new Transaction.Output(j, a.getPublic()));
+        }
+        assertEquals(forward.getCommitment(), backward.getCommitment());
+
+        UTXOCommitment stats = forward.getCommitment();
+        assertEquals(count, stats.count());
+        assertEquals((long) count * (count - 1) / 2, stats.totalValue());
+
+        // odobratie a znovu pridanie vráti pôvodný odtlačok, zmena hodnoty ho zmení
+        UTXOPool layer = forward.overlay();
+        layer.removeUTXO(new UTXO(new byte[] { 5, 1 }, 5));
+        assertFalse(Arrays.equals(stats.digest(), layer.getCommitment().digest()));
+        layer.addUTXO(new UTXO(new byte[] { 5, 1 }, 5), new Transaction.Output(5, a.getPublic()));
+        assertEquals(stats, layer.getCommitment());
+        layer.addUTXO(new UTXO(new byte[] { 5, 1 }, 5), new Transaction.Output(6, a.getPublic()));
+        assertFalse(stats.equals(layer.getCommitment()));
+        assertEquals(stats.totalValue() + 1, layer.getCommitment().totalValue());
+
+        // odtlačok vypočítaný naraz sedí s priebežným
+        UTXOPool fresh = new UTXOPool();
+        forward.forEach(fresh::addUTXO);
+        assertEquals(stats, fresh.getCommitment());
+
+        // pretečenie celkovej hodnoty odtlačok nezmení
+        UTXOCommitment full = new UTXOCommitment();
+        full.add(new UTXO(new byte[] { 1 }, 0), new Transaction.Output(Long.MAX_VALUE, a.getPublic()));
+        UTXOCommitment before = full.copy();
+        try {
+            full.add(new UTXO(new byte[] { 2 }, 0), new Transaction.Output(1, a.getPublic()));
+            fail("celková hodnota pretiekla bez výnimky");
+        } catch (ArithmeticException expected) {
+        }
+        assertEquals(before, full);
+    }
+
+    private static long scanBalance(UTXOPool pool, KeyPair key) {
+        long balance = 0;
+        for (UTXO utxo : pool.getAllUTXO()) {
+            Transaction.Output txOut = pool.getTxOutput(utxo);
+            if (txOut.address.equals(key.getPublic()))
+                balance += txOut.value;
+        }
+        return balance;
+    }
+
+    @Test
+    public void addressIndexTracksBalances() throws NoSuchAlgorithmException {
+        KeyPair[] keys = { keyPair(), keyPair(), keyPair() };
+        Random random = new Random(19);
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < 300; i++)
+            pool.addUTXO(new UTXO(new byte[] { (byte) i, 9 }, 0),
+                    new Transaction.Output(1 + random.nextInt(100), keys[i % 3].getPublic()));
+        pool.indexAddresses();
+
+        UTXOPool layer = pool.overlay();
+        for (int i = 0; i < 2000; i++) {
+            UTXO utxo = new UTXO(new byte[] { (byte) random.nextInt(256), 9 }, 0);
+            if (random.nextBoolean())
+                layer.removeUTXO(utxo);
+            else
+                layer.addUTXO(utxo, new Transaction.Output(random.nextInt(100), keys[random.nextInt(3)].getPublic()));
+        }
+        UTXOPool flat = layer.flatten();
+        for (KeyPair key : keys) {
+            assertEquals(scanBalance(pool, key), pool.getBalance(key.getPublic()));
+            assertEquals(scanBalance(layer, key), layer.getBalance(key.getPublic()));
+            assertEquals(scanBalance(flat, key), flat.getBalance(key.getPublic()));
+            for (UTXO utxo : layer.getCoins(key.getPublic()))
+                assertTrue(layer.getTxOutput(utxo).address.equals(key.getPublic()));
+        }
+        int coins = 0;
+        for (KeyPair key : keys)
+            coins += flat.getCoins(key.getPublic()).size();
+        assertEquals(flat.size(), coins);
+
+        layer.commit();
+        for (KeyPair key : keys)
+            assertEquals(flat.getBalance(key.getPublic()), pool.getBalance(key.getPublic()));
+
+        // kópia zdieľa index, zmena jednej sa druhej nedotkne
+        UTXOPool copy = new UTXOPool(flat);
+        UTXO first = flat.getCoins(keys[0].getPublic()).get(0);
+        long balance = flat.getBalance(keys[0].getPublic());
+        copy.removeUTXO(first);
+        assertEquals(balance, flat.getBalance(keys[0].getPublic()));
+        assertEquals(balance - flat.getTxOutput(first).value, copy.getBalance(keys[0].getPublic()));
+
+        // kľúč bez UTXO sa pri dopyte neinternuje
+        KeyPair unused = keyPair();
+        assertEquals(0, pool.getBalance(unused.getPublic()));
+        assertTrue(pool.getCoins(unused.getPublic()).isEmpty());
+        assertTrue(Address.lookup(unused.getPublic()) == null);
+
+        // zostatok adresy nepretečie, pool sa pri chybe nezmení
+        UTXOPool rich = new UTXOPool();
+        rich.indexAddresses();
+        rich.addUTXO(new UTXO(new byte[] { 1 }, 0), new Transaction.Output(Long.MAX_VALUE - 1, keys[1].getPublic()));
+        try {
+            rich.addUTXO(new UTXO(new byte[] { 2 }, 0), new Transaction.Output(Long.MAX_VALUE - 1, keys[1].getPublic()));
+            fail("zostatok adresy pretiekol");
+        } catch (ArithmeticException expected) {
+        }
+        assertEquals(1, rich.size());
+        assertEquals(Long.MAX_VALUE - 1, rich.getBalance(keys[1].getPublic()));
+        assertNull(rich.getTxOutput(new UTXO(new byte[] { 2 }, 0)));
+    }
+
+    @Test
+    public void streamsWithoutCopying() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Random random = new Random(20);
+        UTXOPool pool = new UTXOPool();
+        UTXOTable table = new UTXOTable();
+        for (int i = 0; i < 20_000; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            Transaction.Output txOut = new Transaction.Output(1 + random.nextInt(1000), a.getPublic());
+            pool.addUTXO(new UTXO(txHash, i & 3), txOut);
+            table.put(new UTXO(txHash, i & 3), txOut);
+        }
+        assertEquals(pool.size(), pool.stream().count());
+        assertEquals(pool.getCommitment().totalValue(),
+                pool.stream().parallel().mapToLong(e -> e.getValue().value).sum());
+        assertEquals(pool.size(), new UTXOPool(table).stream().parallel().map(Map.Entry::getKey).distinct().count());
+
+        // cache prechádza úložisko bez záznamov, ktoré zmenila, a potom seba
+        CachedUTXOStore cache = new CachedUTXOStore(table.copy(), 1_000, 0);
+        UTXOPool cachedPool = new UTXOPool(cache);
+        UTXO spent = pool.getAllUTXO().get(0);
+        cachedPool.removeUTXO(spent);
+        cachedPool.addUTXO(pool.getAllUTXO().get(1), new Transaction.Output(7, a.getPublic()));
+        cachedPool.addUTXO(new UTXO(new byte[] { 2 }, 0), new Transaction.Output(9, a.getPublic()));
+        assertTrue(cache.cachedEntries() > 0);
+        assertEquals(cachedPool.size(), cachedPool.stream().parallel().map(Map.Entry::getKey).distinct().count());
+        assertFalse(cachedPool.stream().anyMatch(e -> e.getKey().equals(spent)));
+        assertEquals(pool.getCommitment().totalValue() - pool.getTxOutput(spent).value
+                - pool.getTxOutput(pool.getAllUTXO().get(1)).value + 16,
+                cachedPool.stream().parallel().mapToLong(e -> e.getValue().value).sum());
+
+        UTXOPool layer = pool.overlay();
+        pool.forEach((ut, txOut) -> {
+            if (ut.getIndex() == 0)
+                layer.removeUTXO(ut);
+        });
+        layer.addUTXO(new UTXO(new byte[] { 1 }, 0), new Transaction.Output(5, a.getPublic()));
+        assertEquals(layer.size(), layer.stream().count());
+        assertEquals(layer.getCommitment().totalValue(), layer.stream().mapToLong(e -> e.getValue().value).sum());
+
+        ArrayList<UTXO> sorted = pool.getAllUTXO();
+        sorted.sort(null);
+        UTXO from = sorted.get(1000);
+        UTXO to = sorted.get(3000);
+        UTXO previous = null;
+        int count = 0;
+        for (Map.Entry<UTXO, Transaction.Output> e : (Iterable<Map.Entry<UTXO, Transaction.Output>>) pool.range(from, to)::iterator) {
+            assertTrue(e.getKey().compareTo(from) >= 0 && e.getKey().compareTo(to) < 0);
+            assertTrue(previous == null || previous.compareTo(e.getKey()) < 0);
+            previous = e.getKey();
+            count++;
+        }
+        assertEquals(2000, count);
+
+        UTXOPool snapshot = pool.snapshot();
+        long value = snapshot.getCommitment().totalValue();
+        long streamed = snapshot.stream().mapToLong(e -> {
+            pool.removeUTXO(e.getKey());
+            return e.getValue().value;
+        }).sum();
+        assertEquals(0, pool.size());
+        assertEquals(value, streamed);
+        assertEquals(sorted.size(), snapshot.size());
+    }
+
+    // čitatelia počas zápisu vidia iba celé verzie: každý "blok" presúva
+    // hodnotu medzi UTXO, súčet a počet sa nemenia
+    @Test
+    public void viewReadersSeeWholeVersions() throws Exception {
+        KeyPair a = keyPair();
+        int count = 2_000;
+        long unit = 10;
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < count; i++)
+            pool.addUTXO(new UTXO(new byte[] { (byte) i, (byte) (i >>> 8), 0 }, 0), new Transaction.Output(unit, a.getPublic()));
+        UTXOView view = new UTXOView(pool);
+
+        int blocks = 2_000;
+        AtomicReference<String> error = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] readers = new Thread[Math.max(2, Runtime.getRuntime().availableProcessors() - 1)];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                long last = -1;
+                Random random = new Random();
+                while (!done.get()) {
+                    UTXOView.Version v = view.current();
+                    if (v.number() < last)
+                        error.set("verzia klesla z " + last + " na " + v.number());
+                    last = v.number();
+                    UTXOCommitment c = v.getCommitment();
+                    if (v.size() != count || c.totalValue() != count * unit)
+                        error.set("verzia " + last + ": " + v.size() + " UTXO, hodnota " + c.totalValue());
+                    UTXO probe = new UTXO(new byte[] { (byte) random.nextInt(256), (byte) random.nextInt(8), (byte) (last % 50) }, 0);
+                    v.contains(probe);
+                    if (last % 64 == 0 && v.stream().mapToLong(e -> e.getValue().value).sum() != count * unit)
+                        error.set("prúd verzie " + last + " nesedí s odtlačkom");
+                }
+            });
+            readers[r].start();
+        }
+
+        Random random = new Random(21);
+        for (int b = 1; b <= blocks; b++) {
+            int round = b;
+            view.apply(layer -> {
+                // blok spotrebuje 20 náhodných UTXO a vytvorí rovnako veľa s rovnakou hodnotou
+                ArrayList<UTXO> spent = new ArrayList<>();
+                layer.stream().skip(random.nextInt(count - 20)).limit(20).forEach(e -> spent.add(e.getKey()));
+                for (int i = 0; i < spent.size(); i++) {
+                    Transaction.Output txOut = layer.getTxOutput(spent.get(i));
+                    layer.removeUTXO(spent.get(i));
+                    layer.addUTXO(new UTXO(new byte[] { (byte) i, (byte) (round >>> 8), (byte) round, 1 }, round), txOut);
+                }
+            });
+        }
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+
+        if (error.get() != null)
+            fail(error.get());
+        assertEquals(blocks, view.current().number());
+        assertEquals(count, view.current().size());
+        assertEquals(count, pool.size());
+    }
+
+    // blok s reťazami transakcií, ktoré míňajú výstupy skorších transakcií bloku
+    @Test
+    public void shardedApplyMatchesSequential() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        UTXOPool base = new UTXOPool();
+        Transaction funding = new Transaction(4_000 * Transaction.COIN, a.getPublic());
+        for (int i = 1; i < 4_000; i++)
+            funding.addOutput(Transaction.COIN, a.getPublic());
+        funding.finalize();
+        for (int i = 0; i < funding.numOutputs(); i++)
+            base.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+        base.getCommitment();
+        base.indexAddresses();
+
+        Block block = new Block(new byte[] { 2 }, a.getPublic());
+        for (int i = 0; i < funding.numOutputs(); i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(funding.getHash(), i);
+            tx.addOutput(Transaction.COIN / 2, a.getPublic());
+            tx.addOutput(Transaction.COIN / 2, a.getPublic());
+            tx.finalize();
+            block.transactionAdd(tx);
+            if (i % 3 == 0) {
+                Transaction next = new Transaction();
+                next.addInput(tx.getHash(), 1);
+                next.addOutput(Transaction.COIN / 2, a.getPublic());
+                next.finalize();
+                block.transactionAdd(next);
+            }
+        }
+        block.finalize();
+
+        UTXOPool reference = base.overlay();
+        for (Transaction tx : block.getTransactions()) {
+            for (Transaction.Input input : tx.getInputs())
+                reference.removeUTXO(input.getUTXO());
+            for (int i = 0; i < tx.numOutputs(); i++)
+                reference.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        }
+        for (int i = 0; i < block.getCoinbase().numOutputs(); i++)
+            reference.addUTXO(new UTXO(block.getCoinbase().getHash(), i), block.getCoinbase().getOutput(i));
+
+        UTXOCommitment before = base.getCommitment();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int shards : new int[] { 1, 4, cores }) {
+            UTXOPool applied = new UTXOShards(shards, ForkJoinPool.commonPool()).apply(base, block);
+            assertEquals(reference.size(), applied.size());
+            assertEquals(reference.getCommitment(), applied.getCommitment());
+            assertEquals(new HashSet<>(reference.getAllUTXO()), new HashSet<>(applied.getAllUTXO()));
+            assertEquals(reference.getBalance(a.getPublic()), applied.getBalance(a.getPublic()));
+        }
+        assertEquals(before, base.getCommitment());
+
+        // cache mení svoje poradie aj pri hľadaní, časti sa preto spracujú postupne
+        UTXOPool cached = new UTXOPool(new CachedUTXOStore(new UTXOTable(), 256, 0));
+        base.forEach(cached::addUTXO);
+        assertFalse(cached.concurrentReads());
+        assertTrue(base.concurrentReads());
+        UTXOPool appliedCached = new UTXOShards(cores, ForkJoinPool.commonPool()).apply(cached, block);
+        assertEquals(reference.getCommitment(), appliedCached.getCommitment());
+        // nad vrstvou sa úložisko cache nekopíruje, výsledok je vrstva nad ním
+        int cachedSize = cached.size();
+        UTXOPool appliedLayer = new UTXOShards(cores, ForkJoinPool.commonPool()).apply(cached.overlay(), block);
+        assertSame(cached, appliedLayer.getParent());
+        assertEquals(reference.size(), appliedLayer.size());
+        assertEquals(reference.getCommitment(), appliedLayer.getCommitment());
+        assertEquals(new HashSet<>(reference.getAllUTXO()), new HashSet<>(appliedLayer.getAllUTXO()));
+        assertEquals(cachedSize, cached.size());
+
+        Block invalid = new Block(new byte[] { 3 }, a.getPublic());
+        Transaction valid = new Transaction();
+        valid.addInput(funding.getHash(), 0);
+        valid.addOutput(Transaction.COIN, a.getPublic());
+        valid.finalize();
+        invalid.transactionAdd(valid);
+        Transaction doubleSpend = new Transaction();
+        doubleSpend.addInput(funding.getHash(), 0);
+        doubleSpend.addOutput(Transaction.COIN, a.getPublic());
+        doubleSpend.finalize();
+        invalid.transactionAdd(doubleSpend);
+        invalid.finalize();
+        assertTrue(new UTXOShards(4, ForkJoinPool.commonPool()).apply(base, invalid) == null);
+        assertEquals(before, base.getCommitment());
+    }
+
+    @Test
+    public void bloomFilterRejectsMissingOutpoints() throws NoSuchAlgorithmException {
+        KeyPair a = keyPair();
+        Random random = new Random(23);
+        BloomUTXOStore store = new BloomUTXOStore(new UTXOTable(), 0.01);
+        UTXOPool pool = new UTXOPool(store);
+        ArrayList<UTXO> live = new ArrayList<>();
+        // prerastie počiatočnú kapacitu, filter sa medzitým postaví nanovo
+        for (int i = 0; i < 10_000; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            UTXO utxo = new UTXO(txHash, i & 1);
+            pool.addUTXO(utxo, new Transaction.Output(1, a.getPublic()));
+            live.add(utxo);
+        }
+        for (int i = 0; i < live.size(); i += 2)
+            pool.removeUTXO(live.get(i));
+        for (int i = 0; i < live.size(); i++)
+            assertEquals(i % 2 == 1, pool.contains(live.get(i)));
+
+        long rejected = store.rejected();
+        int probes = 20_000;
+        for (int i = 0; i < probes; i++) {
+            byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            assertFalse(pool.contains(txHash, 0));
+        }
+        long passed = probes - (store.rejected() - rejected);
+        assertTrue(passed < probes * 0.02);
+        assertTrue(store.falsePositives() >= passed);
+
+        // transakcia míňajúca neexistujúci výstup neprejde ani k úložisku
+        Transaction spam = new Transaction();
+        spam.addInput(new byte[32], 0);
+        spam.addOutput(1, a.getPublic());
+        spam.finalize();
+        long lookups = store.lookups();
+        rejected = store.rejected();
+        assertFalse(new HandleTxs(pool).txIsValid(spam));
+        assertEquals(store.lookups() - lookups, store.rejected() - rejected);
+
+        UTXOPool copy = new UTXOPool(pool);
+        copy.removeUTXO(live.get(1));
+        assertTrue(pool.contains(live.get(1)));
+        assertFalse(copy.contains(live.get(1)));
+        // stránky počítadiel sú po kópii zdieľané, zmena originálu sa kópie nedotkne
+        pool.removeUTXO(live.get(3));
+        assertFalse(pool.contains(live.get(3)));
+        assertTrue(copy.contains(live.get(3)));
+    }
+
+    @Test
+    public void valueSumsRejectOverflow() throws Exception {
+        KeyPair a = keyPair();
+        Transaction root = new Transaction(Long.MAX_VALUE - 1, a.getPublic());
+        root.addOutput(Long.MAX_VALUE - 1, a.getPublic());
+        root.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < root.numOutputs(); i++)
+            pool.addUTXO(new UTXO(root.getHash(), i), root.getOutput(i));
+        HandleTxs handler = new HandleTxs(pool);
+
+        // súčet vstupov by pretiekol do záporných čísel a pokryl by hocičo
+        Transaction inputs = new Transaction();
+        inputs.addInput(root.getHash(), 0);
+        inputs.addInput(root.getHash(), 1);
+        inputs.addOutput(Transaction.COIN, a.getPublic());
+        for (int i = 0; i < 2; i++)
+            inputs.addSignature(sign(a, inputs.getRawDataToSign(i)), i);
+        inputs.finalize();
+        Transaction outputs = new Transaction();
+        outputs.addInput(root.getHash(), 0);
+        outputs.addOutput(Long.MAX_VALUE - 1, a.getPublic());
+        outputs.addOutput(Long.MAX_VALUE - 1, a.getPublic());
+        outputs.addSignature(sign(a, outputs.getRawDataToSign(0)), 0);
+        outputs.finalize();
+
+        for (Transaction tx : new Transaction[] { inputs, outputs }) {
+            ValidationResult result = handler.validate(tx);
+            assertEquals(ValidationResult.Reason.VALUE_OVERFLOW, result.getReason());
+            assertEquals(1, result.getIndex());
+            assertFalse(handler.txIsValid(tx));
+            assertEquals(0, handler.txHandler(new Transaction[] { tx }).length);
+        }
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void validationReportsReasons() throws Exception {
+        KeyPair a = keyPair();
+        KeyPair b = keyPair();
+        Transaction root = new Transaction(10 * Transaction.COIN, a.getPublic());
+        root.addOutput(Transaction.COIN, a.getPublic());
+        root.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < root.numOutputs(); i++)
+            pool.addUTXO(new UTXO(root.getHash(), i), root.getOutput(i));
+        HandleTxs handler = new HandleTxs(pool);
+
+        Transaction valid = new Transaction();
+        valid.addInput(root.getHash(), 0);
+        valid.addOutput(10 * Transaction.COIN, b.getPublic());
+        valid.addSignature(sign(a, valid.getRawDataToSign(0)), 0);
+        valid.finalize();
+        assertTrue(handler.validate(valid) == ValidationResult.VALID);
+
+        Transaction missing = new Transaction();
+        missing.addInput(root.getHash(), 0);
+        missing.addInput(root.getHash(), 7);
+        missing.addOutput(Transaction.COIN, b.getPublic());
+        missing.addSignature(sign(a, missing.getRawDataToSign(0)), 0);
+        missing.finalize();
+        Transaction forged = new Transaction();
+        forged.addInput(root.getHash(), 0);
+        forged.addOutput(Transaction.COIN, b.getPublic());
+        forged.addSignature(sign(b, forged.getRawDataToSign(0)), 0);
+        forged.finalize();
+        Transaction doubleSpend = new Transaction();
+        doubleSpend.addInput(root.getHash(), 1);
+        doubleSpend.addInput(root.getHash(), 1);
+        doubleSpend.addOutput(Transaction.COIN, b.getPublic());
+        doubleSpend.addSignature(sign(a, doubleSpend.getRawDataToSign(0)), 0);
+        doubleSpend.addSignature(sign(a, doubleSpend.getRawDataToSign(1)), 1);
+        doubleSpend.finalize();
+        Transaction negative = new Transaction();
+        negative.addInput(root.getHash(), 1);
+        negative.addOutput(Transaction.COIN, b.getPublic());
+        negative.addOutput(-1, b.getPublic());
+        negative.addSignature(sign(a, negative.getRawDataToSign(0)), 0);
+        negative.finalize();
+        Transaction overspend = new Transaction();
+        overspend.addInput(root.getHash(), 1);
+        overspend.addOutput(Transaction.COIN / 2, b.getPublic());
+        overspend.addOutput(Transaction.COIN, b.getPublic());
+        overspend.addSignature(sign(a, overspend.getRawDataToSign(0)), 0);
+        overspend.finalize();
+
+        Object[][] cases = {
+                { missing, ValidationResult.Reason.MISSING_INPUT, 1 },
+                { forged, ValidationResult.Reason.INVALID_SIGNATURE, 0 },
+                { doubleSpend, ValidationResult.Reason.DOUBLE_SPEND, 1 },
+                { negative, ValidationResult.Reason.NEGATIVE_OUTPUT, 1 },
+                { overspend, ValidationResult.Reason.INSUFFICIENT_INPUTS, 1 } };
+        for (Object[] c : cases) {
+            ValidationResult.Reason reason = (ValidationResult.Reason) c[1];
+            long before = ValidationResult.count(reason);
+            ValidationResult result = handler.validate((Transaction) c[0]);
+            assertFalse(result.isValid());
+            assertEquals(reason, result.getReason());
+            assertEquals((int) (Integer) c[2], result.getIndex());
+            assertEquals(before + 1, ValidationResult.count(reason));
+        }
+
+        // blok nad genesis blokom s platnou transakciou sa pridá, blok bez rodiča nie
+        Block genesis = new Block(null, a.getPublic());
+        genesis.finalize();
+        BlockChain chain = new BlockChain(genesis);
+        Transaction spend = new Transaction();
+        spend.addInput(genesis.getCoinbase().getHash(), 0);
+        spend.addOutput(Block.COINBASE, b.getPublic());
+        spend.addSignature(sign(a, spend.getRawDataToSign(0)), 0);
+        spend.finalize();
+        Block block = new Block(genesis.getHash(), b.getPublic());
+        block.transactionAdd(spend);
+        block.finalize();
+        assertTrue(chain.blockAdd(block));
+        assertTrue(chain.getMaxHeightUTXOPool().contains(new UTXO(spend.getHash(), 0)));
+        assertFalse(chain.getMaxHeightUTXOPool().contains(new UTXO(genesis.getCoinbase().getHash(), 0)));
+        assertEquals(chain.getMaxHeightUTXOPool().getCommitment(), chain.getUTXOView().current().getCommitment());
+
+        // blok v rovnako vysokej vetve sa pridá, ale max height blok a pohľad ostanú
+        long version = chain.getUTXOView().current().number();
+        Block fork = new Block(genesis.getHash(), b.getPublic());
+        fork.finalize();
+        assertTrue(chain.blockAdd(fork));
+        assertSame(block, chain.getMaxHeightBlock());
+        assertEquals(version, chain.getUTXOView().current().number());
+        assertTrue(chain.getUTXOView().current().contains(new UTXO(spend.getHash(), 0)));
+
+        long orphans = ValidationResult.count(ValidationResult.Reason.MISSING_PARENT);
+        Block orphan = new Block(new byte[] { 4 }, a.getPublic());
+        orphan.finalize();
+        assertFalse(chain.blockAdd(orphan));
+        assertEquals(orphans + 1, ValidationResult.count(ValidationResult.Reason.MISSING_PARENT));
+    }
+
+    // spam s neexistujúcimi vstupmi, zápornými výstupmi, dvojitým minutím a
+    // nedostatočnými vstupmi neprejde k podpisom
+    @Test
+    public void spamRejectedBeforeSignatures() throws Exception {
+        KeyPair a = keyPair();
+        KeyPair b = keyPair();
+        Transaction root = new Transaction(Transaction.COIN, a.getPublic());
+        for (int i = 1; i < 100; i++)
+            root.addOutput(Transaction.COIN, a.getPublic());
+        root.finalize();
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < root.numOutputs(); i++)
+            pool.addUTXO(new UTXO(root.getHash(), i), root.getOutput(i));
+
+        ArrayList<Transaction> txs = new ArrayList<>();
+        Random random = new Random(25);
+        int valid = 20;
+        for (int i = 0; i < valid; i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(root.getHash(), i);
+            tx.addOutput(Transaction.COIN, b.getPublic());
+            tx.addSignature(sign(a, tx.getRawDataToSign(0)), 0);
+            tx.finalize();
+            txs.add(tx);
+        }
+        byte[] signature = txs.get(0).getInput(0).getSignature();
+        for (int i = 0; i < 1000; i++) {
+            Transaction tx = new Transaction();
+            int kind = i % 4;
+            if (kind == 0) {
+                byte[] unknown = new byte[32];
+                random.nextBytes(unknown);
+                tx.addInput(unknown, 0);
+            } else {
+                tx.addInput(root.getHash(), valid + i % 80);
+            }
+            if (kind == 1)
+                tx.addInput(root.getHash(), valid + i % 80);
+            tx.addOutput(kind == 2 ? -1 : kind == 3 ? 2 * Transaction.COIN : Transaction.COIN, b.getPublic());
+            for (int j = 0; j < tx.numInputs(); j++)
+                tx.addSignature(signature, j);
+            tx.finalize();
+            txs.add(random.nextInt(txs.size() + 1), tx);
+        }
+
+        long[] checked = new long[ValidationStage.values().length];
+        long[] rejected = new long[checked.length];
+        for (ValidationStage stage : ValidationStage.values()) {
+            checked[stage.ordinal()] = stage.checked();
+            rejected[stage.ordinal()] = stage.rejected();
+        }
+        Transaction[] accepted = new HandleTxs(pool).txHandler(txs.toArray(new Transaction[0]));
+        assertEquals(valid, accepted.length);
+        assertEquals(500, ValidationStage.STRUCTURE.rejected() - rejected[ValidationStage.STRUCTURE.ordinal()]);
+        // chýbajúce vstupy a nedostatočné súčty zamietne predbežná kontrola,
+        // stupeň UTXO potom každú zvyšnú transakciu započíta raz
+        assertEquals(valid + 500, ValidationStage.PRECHECK.checked() - checked[ValidationStage.PRECHECK.ordinal()]);
+        assertEquals(500, ValidationStage.PRECHECK.rejected() - rejected[ValidationStage.PRECHECK.ordinal()]);
+        assertEquals(valid, ValidationStage.UTXO.checked() - checked[ValidationStage.UTXO.ordinal()]);
+        assertEquals(0, ValidationStage.UTXO.rejected() - rejected[ValidationStage.UTXO.ordinal()]);
+        assertEquals(valid, ValidationStage.SIGNATURES.checked() - checked[ValidationStage.SIGNATURES.ordinal()]);
+        assertEquals(0, ValidationStage.SIGNATURES.rejected() - rejected[ValidationStage.SIGNATURES.ordinal()]);
+    }
 }
@@ -0,0 +1,51 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stupne overenia transakcie v poradí od najlacnejšieho, pozri
+ * {@link HandleTxs#validate(Transaction)}. Transakcia zamietnutá v niektorom
+ * stupni sa ďalšími už nekontroluje, takže väčšina neplatných transakcií
+ * neprejde k overovaniu podpisov. Každý stupeň počíta kontroly, zamietnutia a
+ * čas v nich strávený od spustenia.
+ */
+public enum ValidationStage {
+    /** bez UTXO poolu: vstupy majú hash, žiadne UTXO dvakrát, hodnoty výstupov */
+    STRUCTURE,
+    /**
+     * iba v {@link HandleTxs#txHandler}, pred dávkovým overením podpisov: vstupy
+     * sú v UTXO poole alebo míňajú transakciu z epochy. Transakcie, ktoré ním
+     * prejdú, sa potom kontrolujú aj v stupni {@link #UTXO}.
+     */
+    PRECHECK,
+    /** výstupy míňané vstupmi sú v UTXO poole a pokryjú výstupy */
+    UTXO,
+    /** podpisy vstupov, prípadne vopred overené dávkou */
+    SIGNATURES;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    /** započíta kontrolu, ktorá začala v čase {@code start} zo System.nanoTime() */
+    ValidationResult record(long start, ValidationResult result) {
+        nanos.add(System.nanoTime() - start);
+        checked.increment();
+        if (!result.isValid())
+            rejected.increment();
+        return result;
+    }
+
+    /** @return počet transakcií skontrolovaných v tomto stupni */
+    public long checked() {
+        return checked.sum();
+    }
+
+    /** @return počet transakcií zamietnutých v tomto stupni */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** @return celkový čas kontrol tohto stupňa v nanosekundách */
+    public long nanos() {
+        return nanos.sum();
+    }
+}
@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Verziovaný binárny formát transakcií a blokov na prenos cez sieť alebo na
+ * disk. Na rozdiel od {@link Transaction#getRawTx()} (ktorý slúži iba na
+ * hashovanie) má každé pole s premenlivou dĺžkou uvedenú dĺžku, takže sa dá
+ * čítať bez materializovania objektov, pozri {@link TransactionView} a
+ * {@link BlockView}. Všetky čísla sú v poradí BIG_ENDIAN.
+ *
+ * <pre>
+ * transakcia: u8 verzia, u8 príznaky (bit 0 = coinbase), bytes hash,
+ *             i32 počet vstupov, vstupy, i32 počet výstupov, výstupy
+ * vstup:      bytes prevTxHash, i32 outputIndex, bytes signature
+ * výstup:     i64 value, u8 schéma podpisu ({@link SignatureScheme#id()}),
+ *             bytes adresa (X.509 kódovanie verejného kľúča)
+ * blok:       u8 verzia, bytes prevBlockHash, bytes hash,
+ *             i32 dĺžka + coinbase transakcia, i32 počet transakcií,
+ *             pre každú i32 dĺžka + transakcia
+ * bytes:      i16 dĺžka (-1 pre null), obsah
+ * </pre>
+ */
+public class WireFormat {
+
+    public static final byte VERSION = 3;
+    public static final int FLAG_COINBASE = 1;
+
+    /** @return dĺžka zakódovanej transakcie v bajtoch */
+    public static int encodedSize(Transaction tx) {
+        int size = 2 + bytesSize(tx.getHash()) + Integer.BYTES;
+        for (Transaction.Input in : tx.getInputs())
+            size += regionSize(in.prevTxHashLength()) + Integer.BYTES + regionSize(in.signatureLength());
+        size += Integer.BYTES;
+        for (Transaction.Output op : tx.getOutputs())
+            size += Long.BYTES + 1 + bytesSize(op.handle.getEncoded());
+        return size;
+    }
+
+    /** zapíše {@code tx} do {@code out} na jeho aktuálnu pozíciu */
+    public static void write(Transaction tx, ByteBuffer out) {
+        out.put(VERSION);
+        out.put((byte) (tx.isCoinbase() ? FLAG_COINBASE : 0));
+        putBytes(out, tx.getHash());
+        out.putInt(tx.numInputs());
+        for (Transaction.Input in : tx.getInputs()) {
+            putRegion(out, in.data(), in.prevTxHashOffset(), in.prevTxHashLength());
+            out.putInt(in.getOutputIndex());
+            putRegion(out, in.data(), in.signatureOffset(), in.signatureLength());
+        }
+        out.putInt(tx.numOutputs());
+        for (Transaction.Output op : tx.getOutputs()) {
+            out.putLong(op.value);
+            out.put(op.handle.getScheme().id());
+            putBytes(out, op.handle.getEncoded());
+        }
+    }
+
+    public static byte[] encode(Transaction tx) {
+        ByteBuffer out = ByteBuffer.allocate(encodedSize(tx));
+        write(tx, out);
+        return out.array();
+    }
+
+    /** @return dĺžka zakódovaného bloku v bajtoch */
+    public static int encodedSize(Block block) {
+        int size = 1 + bytesSize(block.getPrevBlockHash()) + bytesSize(block.getHash());
+        size += Integer.BYTES + encodedSize(block.getCoinbase());
+        size += Integer.BYTES;
+        for (Transaction tx : block.getTransactions())
+            size += Integer.BYTES + encodedSize(tx);
+        return size;
+    }
+
+    /** zapíše {@code block} do {@code out} na jeho aktuálnu pozíciu */
+    public static void write(Block block, ByteBuffer out) {
+        out.put(VERSION);
+        putBytes(out, block.getPrevBlockHash());
+        putBytes(out, block.getHash());
+        out.putInt(encodedSize(block.getCoinbase()));
+        write(block.getCoinbase(), out);
+        out.putInt(block.getTransactions().size());
+        for (Transaction tx : block.getTransactions()) {
+            out.putInt(encodedSize(tx));
+            write(tx, out);
+        }
+    }
+
+    public static byte[] encode(Block block) {
+        ByteBuffer out = ByteBuffer.allocate(encodedSize(block));
+        write(block, out);
+        return out.array();
+    }
+
+    private static int bytesSize(byte[] b) {
+        return regionSize(b != null ? b.length : -1);
+    }
+
+    private static int regionSize(int length) {
+        return Short.BYTES + Math.max(0, length);
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] b) {
+        if (b == null)
+            putRegion(out, null, 0, -1);
+        else
+            putRegion(out, b, 0, b.length);
+    }
+
+    // zapíše length bajtov z b od offset, length -1 znamená null
+    private static void putRegion(ByteBuffer out, byte[] b, int offset, int length) {
+        if (length < 0) {
+            out.putShort((short) -1);
+            return;
+        }
+        if (length > Short.MAX_VALUE)
+            throw new IllegalArgumentException("pole je príliš dlhé: " + length);
+        out.putShort((short) length);
+        out.put(b, offset, length);
+    }
+}